@@ -16,39 +16,124 @@
 package com.example.android.pets;
 
 import android.app.LoaderManager;
+import android.content.AsyncTaskLoader;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.android.pets.data.CatalogSnapshotFile;
+import com.example.android.pets.data.PetFilter;
+import com.example.android.pets.data.PetWriteQueue;
+import com.example.android.pets.data.StartupTrace;
+import com.example.android.pets.data.PetsContract;
 import com.example.android.pets.data.PetsContract.PetEntry;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
 /**
  * Displays list of pets that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity
-        implements LoaderManager.LoaderCallbacks<Cursor> {
+        implements LoaderManager.LoaderCallbacks<PetSnapshot> {
 
+    // Loader id of the first page of pets. Page n is loaded by loader PET_LOADER + n
     private static final int PET_LOADER = 0;
 
-    // Adapter for cursor holding pet info
-    PetCursorAdapter petCursorAdapter;
+    // Number of pets loaded per page, the same as the cold start snapshot holds
+    private static final int PAGE_SIZE = CatalogSnapshotFile.MAX_PETS;
+
+    // Bundle keys for the _id and sort key value of the last pet on the previous page
+    private static final String ARG_AFTER_ID = "after_id";
+    private static final String ARG_AFTER_KEY = "after_key";
+
+    // Saved state keys for the sort key and the filter, as a URI holding it
+    private static final String STATE_SORT_KEY = "sort_key";
+    private static final String STATE_FILTER = "filter";
+
+    // Sort key of each option of the sort spinner
+    private static final String[] SORT_KEYS = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    // Gender of each option of the gender filter spinner, null for all genders
+    private static final Integer[] FILTER_GENDERS = {
+            null, PetEntry.GENDER_UNKNOWN, PetEntry.GENDER_MALE, PetEntry.GENDER_FEMALE
+    };
+
+    // How long typing in a filter field must pause before the list is loaded again
+    private static final long FILTER_DELAY_MS = 300;
+
+    // Adapter for the list of pets
+    PetAdapter petAdapter;
+
+    // Snapshot of each page loaded so far, null while a page is loading
+    private final ArrayList<PetSnapshot> mPages = new ArrayList<PetSnapshot>();
+
+    // Shown until the pages have loaded again: at cold start the first page as saved by the
+    // provider after the last change, after a new sort or filter the previous first page, and
+    // after a reload every page shown before. Empty once loaded, or when there is nothing to show
+    private final ArrayList<PetSnapshot> mPlaceholderPages = new ArrayList<PetSnapshot>();
+
+    // Number of pages to load one after the other before the placeholder pages are dropped
+    private int mPagesToLoad = 1;
+
+    // Column the pages are sorted by, and which pets they hold
+    private String mSortKey = PetEntry._ID;
+    private PetFilter mFilter = PetFilter.NONE;
+
+    // Filter bar
+    private Spinner mSortSpinner;
+    private Spinner mGenderSpinner;
+    private EditText mBreedEditText;
+    private EditText mMinWeightEditText;
+    private EditText mMaxWeightEditText;
+
+    // Applies the filter bar once typing pauses
+    private final Handler mFilterHandler = new Handler();
+    private final Runnable mApplyFilter = new Runnable() {
+        @Override
+        public void run() {
+            applyFilter();
+        }
+    };
+
+    // Latest values of pets changed since their page was loaded, by _id
+    private final HashMap<Long, PetSnapshot> mChangedRows = new HashMap<Long, PetSnapshot>();
+
+    // Pets deleted since their page was loaded
+    private final HashSet<Long> mDeletedRows = new HashSet<Long>();
+
+    // Watches for changed pets, so they can be patched into the list without reloading it
+    private ContentObserver mPetObserver;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.beginSection("CatalogActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
@@ -62,38 +147,457 @@ public class CatalogActivity extends AppCompatActivity
             }
         });
 
-        // List view for displaying the pet data
-        ListView listView = (ListView) findViewById(R.id.list_view_pet);
+        // Recycler view for displaying the pet data
+        RecyclerView recyclerView = (RecyclerView) findViewById(R.id.recycler_view_pet);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
 
-        // Empty view for when there are no pets in the list
-        View emptyView = findViewById(R.id.empty_view);
-        listView.setEmptyView(emptyView);
-
-        // Set up adapter using data from cursor
-        petCursorAdapter = new PetCursorAdapter(this, null);
-        listView.setAdapter(petCursorAdapter);
-
-        // Set up on item click listener
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Set up adapter, opening the editor for a tapped pet
+        petAdapter = new PetAdapter(this, new PetAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onPetClick(long id) {
 
                 // Get uri for this specific pet
                 Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
 
                 // Create intent to editor activty. Pass it additional data: the uri of tapped item
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
-                //intent.putExtra("petUri", uri.toString());
                 intent.setData(uri);
 
                 // Go to editor activity
                 startActivity(intent);
+            }
+        });
+        recyclerView.setAdapter(petAdapter);
+
+        // Empty view for when there are no pets in the list
+        final View emptyView = findViewById(R.id.empty_view);
+        petAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
 
+            private void updateEmptyView() {
+                emptyView.setVisibility(petAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+            }
+        });
+
+        // Load the next page when the user scrolls close to the end of what is loaded
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+                if (lastVisibleItem >= petAdapter.getItemCount() - PAGE_SIZE / 2) {
+                    loadNextPage();
+                }
             }
         });
 
-        // Prepare the loader. Either reconnect or create new one
+        // Listen for changes to any pet. Before API 16 there is no URI, so everything is reloaded
+        mPetObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onPetsChanged(uri);
+            }
+        };
+        getContentResolver().registerContentObserver(PetEntry.CONTENT_URI, true, mPetObserver);
+
+        // Pick up the sort and filter the pages were loaded with. The filter bar views restore
+        // their own state
+        if (savedInstanceState != null) {
+            mSortKey = savedInstanceState.getString(STATE_SORT_KEY, PetEntry._ID);
+            mFilter = PetFilter.fromUri(Uri.parse(savedInstanceState.getString(STATE_FILTER)));
+        }
+        setupFilterBar();
+
+        // Prepare the loader for the first page. Either reconnect or create new one
+        mPages.add(null);
         getLoaderManager().initLoader(PET_LOADER, null, this);
+
+        // On a fresh start, show the saved first page while the database opens and loads
+        if (savedInstanceState == null) {
+            PetSnapshot coldStartPage = readColdStartPage();
+            if (coldStartPage != null) {
+                mPlaceholderPages.add(coldStartPage);
+                showPages();
+                StartupTrace.mark("Catalog snapshot shown");
+            }
+        }
+        StartupTrace.endSection();
+    }
+
+    /**
+     * Read the first page saved by the provider, or return null if there is none. The file is
+     * small and memory-mapped, so this is fine on the main thread.
+     */
+    private PetSnapshot readColdStartPage() {
+        Cursor cursor = CatalogSnapshotFile.open(CatalogSnapshotFile.getFile(this));
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return PetSnapshot.from(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT_KEY, mSortKey);
+        outState.putString(STATE_FILTER, mFilter.applyTo(PetEntry.CONTENT_URI).toString());
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mFilterHandler.removeCallbacks(mApplyFilter);
+        getContentResolver().unregisterContentObserver(mPetObserver);
+    }
+
+    /**
+     * Set up the sort and gender spinners and the breed and weight fields. Any change is applied
+     * with {@link #applyFilter()}, after a short pause for typing.
+     */
+    private void setupFilterBar() {
+        mSortSpinner = (Spinner) findViewById(R.id.spinner_sort);
+        mGenderSpinner = (Spinner) findViewById(R.id.spinner_filter_gender);
+        mBreedEditText = (EditText) findViewById(R.id.edit_filter_breed);
+        mMinWeightEditText = (EditText) findViewById(R.id.edit_filter_min_weight);
+        mMaxWeightEditText = (EditText) findViewById(R.id.edit_filter_max_weight);
+
+        ArrayAdapter sortAdapter = ArrayAdapter.createFromResource(this,
+                R.array.array_sort_options, android.R.layout.simple_spinner_item);
+        sortAdapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        mSortSpinner.setAdapter(sortAdapter);
+
+        ArrayAdapter genderAdapter = ArrayAdapter.createFromResource(this,
+                R.array.array_filter_gender_options, android.R.layout.simple_spinner_item);
+        genderAdapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        mGenderSpinner.setAdapter(genderAdapter);
+
+        // Spinners apply right away. They also call back once laid out, which changes nothing
+        AdapterView.OnItemSelectedListener spinnerListener = new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                applyFilter();
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+                applyFilter();
+            }
+        };
+        mSortSpinner.setOnItemSelectedListener(spinnerListener);
+        mGenderSpinner.setOnItemSelectedListener(spinnerListener);
+
+        // Text fields apply once typing pauses
+        TextWatcher textWatcher = new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence text, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence text, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable text) {
+                mFilterHandler.removeCallbacks(mApplyFilter);
+                mFilterHandler.postDelayed(mApplyFilter, FILTER_DELAY_MS);
+            }
+        };
+        mBreedEditText.addTextChangedListener(textWatcher);
+        mMinWeightEditText.addTextChangedListener(textWatcher);
+        mMaxWeightEditText.addTextChangedListener(textWatcher);
+    }
+
+    /**
+     * Read the filter bar, and when the sort or filter changed, drop every page and load the
+     * first one again. The provider sorts and filters in SQL, so only matching pets are loaded.
+     */
+    private void applyFilter() {
+        int sortPosition = mSortSpinner.getSelectedItemPosition();
+        int genderPosition = mGenderSpinner.getSelectedItemPosition();
+        String sortKey = sortPosition < 0 ? PetEntry._ID : SORT_KEYS[sortPosition];
+        String breed = mBreedEditText.getText().toString().trim();
+        PetFilter filter = new PetFilter(
+                genderPosition < 0 ? null : FILTER_GENDERS[genderPosition],
+                breed.isEmpty() ? null : breed,
+                parseWeight(mMinWeightEditText),
+                parseWeight(mMaxWeightEditText));
+        if (sortKey.equals(mSortKey) && filter.equals(mFilter)) {
+            return;
+        }
+        mSortKey = sortKey;
+        mFilter = filter;
+
+        // Keep showing the current first page until the new one has loaded
+        if (mPlaceholderPages.isEmpty() && mPages.get(0) != null) {
+            mPlaceholderPages.add(mPages.get(0));
+        }
+        restartPages(1);
+    }
+
+    /**
+     * Drop every page and load them again from the first one, up to the given number of pages.
+     * Each page starts after the last pet of the page before it as loaded now, so pets that
+     * moved between pages are neither shown twice nor left out.
+     */
+    private void restartPages(int pageCount) {
+        int oldPageCount = mPages.size();
+        mPages.clear();
+        mPages.add(null);
+        for (int i = 1; i < oldPageCount; i++) {
+            getLoaderManager().destroyLoader(PET_LOADER + i);
+        }
+        mPagesToLoad = pageCount;
+        mChangedRows.clear();
+        mDeletedRows.clear();
+        getLoaderManager().restartLoader(PET_LOADER, null, this);
+        showPages();
+    }
+
+    // Weight typed in a field, or null when there is none
+    private static Integer parseWeight(EditText editText) {
+        String text = editText.getText().toString().trim();
+        if (text.isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Handle a change notification. A change to a single pet only fetches that pet, anything
+     * else reloads every page.
+     */
+    private void onPetsChanged(Uri uri) {
+        // The catalog shows the main site only, changes to other sites leave it as it is
+        String site = uri != null ? uri.getQueryParameter(PetsContract.QUERY_PARAM_SITE) : null;
+        if (site != null && !PetsContract.SITE_MAIN.equals(site)) {
+            return;
+        }
+
+        // In another order or with a filter, a changed pet may move or leave the list
+        boolean patchable = PetEntry._ID.equals(mSortKey) && mFilter.isEmpty();
+        if (!patchable || uri == null || uri.getPathSegments().size() != 2) {
+            reloadPages();
+            return;
+        }
+
+        final long id;
+        try {
+            id = ContentUris.parseId(uri);
+        } catch (NumberFormatException e) {
+            reloadPages();
+            return;
+        }
+
+        // Fetch the changed pet in the background
+        final Uri petUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+        new AsyncTask<Void, Void, PetSnapshot>() {
+            @Override
+            protected PetSnapshot doInBackground(Void... voids) {
+                Cursor cursor = getContentResolver().query(petUri, PetSnapshot.PROJECTION, null, null, null);
+                if (cursor == null) {
+                    return null;
+                }
+                try {
+                    return PetSnapshot.from(cursor);
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(PetSnapshot row) {
+                if (row != null && !isFinishing()) {
+                    patchRow(id, row);
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Apply the latest values of a single pet to the list. A missing row means the pet was
+     * deleted, and a pet past the last loaded one is new, so only the last page is reloaded.
+     */
+    private void patchRow(long id, PetSnapshot row) {
+        if (row.size() == 0) {
+            mChangedRows.remove(id);
+            mDeletedRows.add(id);
+            showPages();
+            return;
+        }
+
+        mDeletedRows.remove(id);
+        if (id > getLastLoadedId()) {
+            Loader<PetSnapshot> lastPageLoader = getLoaderManager().getLoader(PET_LOADER + mPages.size() - 1);
+            if (lastPageLoader != null) {
+                lastPageLoader.forceLoad();
+            }
+            return;
+        }
+
+        mChangedRows.put(id, row);
+        showPages();
+    }
+
+    /**
+     * Return the _id of the last pet loaded, or -1 if there is none yet.
+     */
+    private long getLastLoadedId() {
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            PetSnapshot page = mPages.get(i);
+            if (page != null && page.size() > 0) {
+                return page.getId(page.size() - 1);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drop all single-row changes and load as many pages as are loaded now again, keeping the
+     * current list on screen until they have all loaded.
+     */
+    private void reloadPages() {
+        // While an earlier reload is still loading, its placeholders are still the list shown
+        if (mPlaceholderPages.isEmpty()) {
+            for (PetSnapshot page : mPages) {
+                if (page != null) {
+                    mPlaceholderPages.add(page);
+                }
+            }
+        }
+        restartPages(Math.max(mPages.size(), mPagesToLoad));
+    }
+
+    /**
+     * Start loading the page after the last one, unless a page is still loading or the last
+     * page was not full, which means there are no more pets.
+     */
+    private void loadNextPage() {
+        PetSnapshot lastPage = mPages.get(mPages.size() - 1);
+        if (lastPage == null || lastPage.size() < PAGE_SIZE) {
+            return;
+        }
+
+        // The next page starts after the last pet on this one
+        int last = lastPage.size() - 1;
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_ID, lastPage.getId(last));
+        if (PetEntry.COLUMN_PET_NAME.equals(mSortKey)) {
+            args.putString(ARG_AFTER_KEY, lastPage.getName(last));
+        } else if (PetEntry.COLUMN_PET_BREED.equals(mSortKey)) {
+            // Left out for a pet without a breed
+            args.putString(ARG_AFTER_KEY, lastPage.getBreed(last));
+        } else if (PetEntry.COLUMN_PET_WEIGHT.equals(mSortKey)) {
+            args.putString(ARG_AFTER_KEY, String.valueOf(lastPage.getWeight(last)));
+        }
+
+        mPages.add(null);
+        getLoaderManager().initLoader(PET_LOADER + mPages.size() - 1, args, this);
+    }
+
+    /**
+     * Show all pages loaded so far, in order, as one list.
+     */
+    private void showPages() {
+        ArrayList<PetSnapshot> loaded = new ArrayList<PetSnapshot>();
+        if (!mPlaceholderPages.isEmpty()) {
+            loaded.addAll(mPlaceholderPages);
+        } else {
+            for (PetSnapshot page : mPages) {
+                if (page != null) {
+                    loaded.add(page);
+                }
+            }
+        }
+
+        // Pages are merged with the changed pets off the main thread
+        petAdapter.swapPages(loaded, mChangedRows, mDeletedRows);
+    }
+
+    /**
+     * Loader for one page of pets, copied into a {@link PetSnapshot} in the background so no
+     * cursor is kept open. It doesn't reload on change notifications by itself, since
+     * {@link #onPetsChanged(Uri)} decides what needs to be loaded again.
+     */
+    private static class PageLoader extends AsyncTaskLoader<PetSnapshot> {
+
+        private final Uri mUri;
+
+        // Last snapshot loaded, delivered again when the activity is recreated
+        private PetSnapshot mSnapshot;
+
+        // Constructor
+        PageLoader(Context context, Uri uri) {
+            super(context);
+            mUri = uri;
+        }
+
+        @Override
+        public PetSnapshot loadInBackground() {
+            Cursor cursor = getContext().getContentResolver().query(mUri, PetSnapshot.PROJECTION, null, null, null);
+            if (cursor == null) {
+                return PetSnapshot.EMPTY;
+            }
+            try {
+                return PetSnapshot.from(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        public void deliverResult(PetSnapshot snapshot) {
+            mSnapshot = snapshot;
+            if (isStarted()) {
+                super.deliverResult(snapshot);
+            }
+        }
+
+        @Override
+        protected void onStartLoading() {
+            if (mSnapshot != null) {
+                deliverResult(mSnapshot);
+            }
+            if (mSnapshot == null || takeContentChanged()) {
+                forceLoad();
+            }
+        }
+
+        @Override
+        protected void onStopLoading() {
+            cancelLoad();
+        }
+
+        @Override
+        protected void onReset() {
+            onStopLoading();
+            mSnapshot = null;
+        }
     }
 
     private void insertPet() {
@@ -142,44 +646,61 @@ public class CatalogActivity extends AppCompatActivity
 
     private void deleteAllPets() {
 
-        int rowsDeleted = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
-
-        if (rowsDeleted == 0) {
-            Toast.makeText(this, "ERROR : No rows deleted", Toast.LENGTH_SHORT).show();
-        } else {
-            Toast.makeText(this, rowsDeleted + " rows deleted", Toast.LENGTH_SHORT).show();
-
-        }
+        // Delete in the background and report back when done
+        final Context appContext = getApplicationContext();
+        PetWriteQueue.getInstance(this).delete(PetEntry.CONTENT_URI, new PetWriteQueue.OnWriteCompleteListener() {
+            @Override
+            public void onWriteComplete(Uri newUri, int rowsDeleted) {
+                if (rowsDeleted == 0) {
+                    Toast.makeText(appContext, "ERROR : No rows deleted", Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(appContext, rowsDeleted + " rows deleted", Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+    public Loader<PetSnapshot> onCreateLoader(int id, Bundle bundle) {
 
-        // Names of columns to call from the table
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED
-        };
+        // The first page starts at the beginning of the sort order, others after the previous page
+        Uri pageUri = bundle == null
+                ? PetEntry.buildFirstPageUri(mSortKey, PAGE_SIZE)
+                : PetEntry.buildNextPageUri(mSortKey, PAGE_SIZE, bundle.getString(ARG_AFTER_KEY),
+                        bundle.getLong(ARG_AFTER_ID));
 
-        // Create and return a CursorLoader that will take care of creating a cursor for the data
-        return new CursorLoader(this,
-                PetEntry.CONTENT_URI,
-                projection,
-                null, null, null);
+        // Create and return a loader that will take care of copying the page in the background
+        return new PageLoader(this, mFilter.applyTo(pageUri));
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor newCursor) {
-
-        // Swap the new cursor into the adapter
-        petCursorAdapter.swapCursor(newCursor);
+    public void onLoadFinished(Loader<PetSnapshot> loader, PetSnapshot snapshot) {
+
+        // Put the page in its place and show the new list. The loaded pages replace the
+        // placeholder ones once all have loaded, and the adapter only updates the pets that differ
+        int page = loader.getId() - PET_LOADER;
+        mPages.set(page, snapshot);
+        if (page == 0) {
+            StartupTrace.mark("First onLoadFinished");
+        }
+        if (page + 1 < mPagesToLoad && snapshot.size() == PAGE_SIZE) {
+            // Load the next page from the last pet of this one
+            loadNextPage();
+        } else {
+            mPagesToLoad = 1;
+            mPlaceholderPages.clear();
+        }
+        showPages();
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
+    public void onLoaderReset(Loader<PetSnapshot> loader) {
 
-        // Called when previous cursor is reset and no longer needed
-        petCursorAdapter.swapCursor(null);
+        // Called when previous snapshot is reset and no longer needed
+        int page = loader.getId() - PET_LOADER;
+        if (page < mPages.size()) {
+            mPages.set(page, null);
+        }
+        showPages();
     }
 }
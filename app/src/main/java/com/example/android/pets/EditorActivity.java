@@ -17,14 +17,20 @@ package com.example.android.pets;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
@@ -39,9 +45,18 @@ import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.android.pets.data.PetWriteQueue;
 import com.example.android.pets.data.PetsContract;
 import com.example.android.pets.data.PetsContract.PetEntry;
 
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
 /**
  * Allows user to create a new pet or edit an existing one.
  */
@@ -50,6 +65,12 @@ public class EditorActivity extends AppCompatActivity
 
     private static final int EXISTING_PET_LOADER = 1;
 
+    // Request code of the photo picker
+    private static final int PICK_PHOTO_REQUEST = 1;
+
+    // Copies chosen photos to the provider, one at a time
+    private static final Executor PHOTO_EXECUTOR = Executors.newSingleThreadExecutor();
+
     /** EditText field to enter the pet's name */
     private EditText mNameEditText;
 
@@ -223,30 +244,42 @@ public class EditorActivity extends AppCompatActivity
         values.put(PetEntry.COLUMN_PET_WEIGHT, weightInt);
 
 
+        // The editor closes right away, so results are shown with the application context
+        final Context appContext = getApplicationContext();
+        PetWriteQueue writeQueue = PetWriteQueue.getInstance(this);
+
         // If we're in edit mode
         if (mCurrentPetUri != null) {
 
-            int rowsAffected = getContentResolver().update(mCurrentPetUri, values, null, null);
-
-            if (rowsAffected == 0) {
-                Toast.makeText(this, R.string.pet_not_updated, Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, R.string.pet_successfully_updated, Toast.LENGTH_SHORT).show();
-            }
+            // Update in the background
+            writeQueue.update(mCurrentPetUri, values, new PetWriteQueue.OnWriteCompleteListener() {
+                @Override
+                public void onWriteComplete(Uri newUri, int rowsAffected) {
+                    if (rowsAffected == 0) {
+                        Toast.makeText(appContext, R.string.pet_not_updated, Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, R.string.pet_successfully_updated, Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
 
         // If we're in insert mode
         else {
 
-            // Insert into database through content resolver
-            Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
+            // Insert into database in the background
+            writeQueue.insert(PetEntry.CONTENT_URI, values, new PetWriteQueue.OnWriteCompleteListener() {
+                @Override
+                public void onWriteComplete(Uri newUri, int rowsAffected) {
 
-            // Was insertion successful?
-            if (newUri == null) {
-                Toast.makeText(this, R.string.editor_insert_pet_failed, Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, R.string.editor_insert_pet_successful, Toast.LENGTH_SHORT).show();
-            }
+                    // Was insertion successful?
+                    if (newUri == null) {
+                        Toast.makeText(appContext, R.string.editor_insert_pet_failed, Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, R.string.editor_insert_pet_successful, Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
     }
 
@@ -284,19 +317,20 @@ public class EditorActivity extends AppCompatActivity
 
         if (mCurrentPetUri != null) {
 
-            // Deletes the words that match the selection criteria
-            int mRowsDeleted = getContentResolver().delete(
-                    mCurrentPetUri,
-                    null,
-                    null
-            );
+            // Delete the pet in the background, the editor closes right away
+            final Context appContext = getApplicationContext();
+            PetWriteQueue.getInstance(this).delete(mCurrentPetUri, new PetWriteQueue.OnWriteCompleteListener() {
+                @Override
+                public void onWriteComplete(Uri newUri, int rowsDeleted) {
 
-            // Show toast message
-            if (mRowsDeleted == 0) {
-                Toast.makeText(this, R.string.pet_not_deleted, Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, R.string.pet_deleted, Toast.LENGTH_SHORT).show();
-            }
+                    // Show toast message
+                    if (rowsDeleted == 0) {
+                        Toast.makeText(appContext, R.string.pet_not_deleted, Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, R.string.pet_deleted, Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
 
             finish();
         }
@@ -310,6 +344,9 @@ public class EditorActivity extends AppCompatActivity
         if (mCurrentPetUri == null) {
             MenuItem menuItem = menu.findItem(R.id.action_delete);
             menuItem.setVisible(false);
+
+            // A photo needs a saved pet to belong to
+            menu.findItem(R.id.action_choose_photo).setVisible(false);
         }
         return true;
     }
@@ -344,6 +381,14 @@ public class EditorActivity extends AppCompatActivity
                 showDeleteConfirmationDialog();
                 return true;
 
+            // Respond to a click on the "Choose Photo" menu option
+            case R.id.action_choose_photo:
+                Intent pickIntent = new Intent(Intent.ACTION_GET_CONTENT);
+                pickIntent.setType("image/*");
+                pickIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(pickIntent, PICK_PHOTO_REQUEST);
+                return true;
+
             // Respond to a click on the "Up" arrow button in the app bar
             case android.R.id.home:
                 // If the pet hasn't changed, continue with navigating up to parent activity
@@ -372,6 +417,93 @@ public class EditorActivity extends AppCompatActivity
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == PICK_PHOTO_REQUEST && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            savePhoto(data.getData());
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Copy the chosen image to the current pet's photo in the background. The provider only
+     * switches the pet to the new photo once all of it is written, and drops it if the copy
+     * fails half way.
+     */
+    private void savePhoto(final Uri imageUri) {
+        final Context appContext = getApplicationContext();
+        final Uri photoUri = PetEntry.buildPhotoUri(ContentUris.parseId(mCurrentPetUri));
+        PHOTO_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                InputStream in = null;
+                ParcelFileDescriptor photo = null;
+                String error = null;
+                try {
+                    in = appContext.getContentResolver().openInputStream(imageUri);
+                    if (in == null) {
+                        throw new IOException("No image at " + imageUri);
+                    }
+                    photo = appContext.getContentResolver().openFileDescriptor(photoUri, "w");
+                    if (photo == null) {
+                        throw new IOException("Cannot write " + photoUri);
+                    }
+
+                    // Unbuffered, and not closed: closing the descriptor below closes it
+                    OutputStream out = new FileOutputStream(photo.getFileDescriptor());
+                    byte[] buffer = new byte[8192];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                } catch (IOException e) {
+                    error = String.valueOf(e.getMessage());
+                    Log.e("EditorActivity", "Couldn't save photo " + imageUri, e);
+                    showPhotoFailed(appContext);
+                } finally {
+                    closeQuietly(in);
+                    if (photo != null) {
+                        closePhoto(photo, error);
+                    }
+                }
+            }
+        });
+    }
+
+    // Close the photo being written, with the error that stopped it if any, so the provider
+    // drops a partial photo. Before KitKat there is no way to tell it
+    private static void closePhoto(ParcelFileDescriptor photo, String error) {
+        try {
+            if (error != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                photo.closeWithError(error);
+            } else {
+                photo.close();
+            }
+        } catch (IOException e) {
+            // Nothing more to do with it
+        }
+    }
+
+    private static void showPhotoFailed(final Context context) {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(context, R.string.editor_photo_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing more to do with it
+            }
+        }
+    }
+
     @Override
     public Loader onCreateLoader(int i, Bundle bundle) {
 
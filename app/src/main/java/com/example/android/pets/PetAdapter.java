@@ -0,0 +1,238 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Created by kempm on 1/15/2017.
+ *
+ * {@link RecyclerView.Adapter} for the list of pets. Pages of pets arrive as immutable
+ * {@link PetSnapshot}s, which are merged and diffed with the previous list on a background
+ * thread, so only the pets that changed are rebound, straight from the snapshot's arrays.
+ * Photo thumbnails come from {@link PetThumbnailCache}.
+ */
+public class PetAdapter extends RecyclerView.Adapter<PetAdapter.PetViewHolder> {
+
+    // Called when a pet in the list is tapped
+    public interface OnPetClickListener {
+        void onPetClick(long id);
+    }
+
+    // Merges and diffs lists one after the other, so they are applied in the order submitted
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // Posts finished differences back to the main thread
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Shown for pets without a breed
+    private final String mUnknownBreed;
+
+    // Shown for each gender, and after the weight
+    private final String mGenderMale;
+    private final String mGenderFemale;
+    private final String mGenderUnknown;
+    private final String mWeightUnit;
+
+    private final OnPetClickListener mListener;
+
+    private final PetThumbnailCache mThumbnails;
+
+    // Pets currently shown by the list
+    private PetSnapshot mSnapshot = PetSnapshot.EMPTY;
+
+    // Pets of the last pages submitted. Each new list is diffed against this one.
+    // Only used on the diff thread
+    private PetSnapshot mSubmittedSnapshot = PetSnapshot.EMPTY;
+
+    // Constructor
+    public PetAdapter(Context context, OnPetClickListener listener) {
+        mUnknownBreed = context.getString(R.string.unknown_breed);
+        mGenderMale = context.getString(R.string.gender_male);
+        mGenderFemale = context.getString(R.string.gender_female);
+        mGenderUnknown = context.getString(R.string.gender_unknown);
+        mWeightUnit = context.getString(R.string.unit_pet_weight);
+        mListener = listener;
+        mThumbnails = PetThumbnailCache.getInstance(context);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the given pages of pets as one list, with the latest values of changed pets and
+     * without deleted pets. The list is merged and diffed on a background thread, then only the
+     * rows that differ from the previous list are updated. The collections are copied, so the
+     * caller may keep changing them.
+     */
+    public void swapPages(List<PetSnapshot> pages, Map<Long, PetSnapshot> changedRows, Set<Long> deletedRows) {
+        final List<PetSnapshot> pagesCopy = new ArrayList<PetSnapshot>(pages);
+        final Map<Long, PetSnapshot> changedRowsCopy = new HashMap<Long, PetSnapshot>(changedRows);
+        final Set<Long> deletedRowsCopy = new HashSet<Long>(deletedRows);
+
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final PetSnapshot oldSnapshot = mSubmittedSnapshot;
+                final PetSnapshot newSnapshot = PetSnapshot.merge(pagesCopy, changedRowsCopy, deletedRowsCopy);
+                mSubmittedSnapshot = newSnapshot;
+
+                final DiffUtil.DiffResult diff =
+                        DiffUtil.calculateDiff(new SnapshotDiff(oldSnapshot, newSnapshot), false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mSnapshot = newSnapshot;
+                        diff.dispatchUpdatesTo(PetAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    // Create and return new blank list item
+    @Override
+    public PetViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new PetViewHolder(view);
+    }
+
+    // Populate list item view with pet data
+    @Override
+    public void onBindViewHolder(PetViewHolder holder, int position) {
+        String petBreed = mSnapshot.getBreed(position);
+
+        // If breed field is blank, show unknown
+        if (TextUtils.isEmpty(petBreed)) {
+            petBreed = mUnknownBreed;
+        }
+
+        // Summary line of breed, gender and weight, built in the holder's own buffer
+        StringBuilder summary = holder.summaryText;
+        summary.setLength(0);
+        summary.append(petBreed)
+                .append(" \u00b7 ").append(genderLabel(mSnapshot.getGender(position)))
+                .append(" \u00b7 ").append(mSnapshot.getWeight(position)).append(' ').append(mWeightUnit);
+
+        // Populate views
+        holder.name.setText(mSnapshot.getName(position));
+        holder.summary.setText(summary);
+
+        // Show the photo's thumbnail, or no image for pets without a photo
+        String photo = mSnapshot.getPhoto(position);
+        if (photo == null) {
+            mThumbnails.cancel(holder.thumbnail);
+            holder.thumbnail.setImageDrawable(null);
+            holder.thumbnail.setVisibility(View.GONE);
+        } else {
+            holder.thumbnail.setVisibility(View.VISIBLE);
+            mThumbnails.load(holder.thumbnail, mSnapshot.getId(position), photo);
+        }
+    }
+
+    // Stop loading the thumbnail of an item scrolled off screen
+    @Override
+    public void onViewRecycled(PetViewHolder holder) {
+        mThumbnails.cancel(holder.thumbnail);
+    }
+
+    private String genderLabel(int gender) {
+        switch (gender) {
+            case PetEntry.GENDER_MALE:
+                return mGenderMale;
+            case PetEntry.GENDER_FEMALE:
+                return mGenderFemale;
+            default:
+                return mGenderUnknown;
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return mSnapshot.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mSnapshot.getId(position);
+    }
+
+    /**
+     * Views of one list item, found once when the item is created.
+     */
+    class PetViewHolder extends RecyclerView.ViewHolder {
+
+        final TextView name;
+        final TextView summary;
+        final ImageView thumbnail;
+        final StringBuilder summaryText = new StringBuilder();
+
+        PetViewHolder(View itemView) {
+            super(itemView);
+            name = (TextView) itemView.findViewById(R.id.name);
+            summary = (TextView) itemView.findViewById(R.id.summary);
+            thumbnail = (ImageView) itemView.findViewById(R.id.thumbnail);
+
+            // Open the tapped pet
+            itemView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    if (getAdapterPosition() != RecyclerView.NO_POSITION) {
+                        mListener.onPetClick(getItemId());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Compares two lists of pets by _id, and their shown values.
+     */
+    private static final class SnapshotDiff extends DiffUtil.Callback {
+
+        private final PetSnapshot mOldSnapshot;
+        private final PetSnapshot mNewSnapshot;
+
+        SnapshotDiff(PetSnapshot oldSnapshot, PetSnapshot newSnapshot) {
+            mOldSnapshot = oldSnapshot;
+            mNewSnapshot = newSnapshot;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldSnapshot.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewSnapshot.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldSnapshot.getId(oldItemPosition) == mNewSnapshot.getId(newItemPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldSnapshot.contentEquals(oldItemPosition, mNewSnapshot, newItemPosition);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.android.pets;
+
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, column by column copy of a list of pets, safe to read from any thread.
+ *
+ * Ids, genders and weights are kept in primitive arrays. Names, breeds and photo file names are
+ * stored once each in a table of distinct strings and referenced by index, since many pets share
+ * a breed.
+ * Snapshots are built off the main thread, and the catalog binds straight from the arrays.
+ */
+public final class PetSnapshot {
+
+    // Columns a snapshot is built from
+    public static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO
+    };
+
+    public static final PetSnapshot EMPTY =
+            new PetSnapshot(new long[0], new int[0], new int[0], new int[0], new int[0], new int[0], new String[0]);
+
+    private final long[] mIds;
+    private final int[] mNames;
+    private final int[] mBreeds;
+    private final int[] mGenders;
+    private final int[] mWeights;
+    private final int[] mPhotos;
+
+    // Distinct names, breeds and photos. A breed or photo index of -1 means none
+    private final String[] mStrings;
+
+    // Constructor
+    private PetSnapshot(long[] ids, int[] names, int[] breeds, int[] genders, int[] weights, int[] photos,
+                        String[] strings) {
+        mIds = ids;
+        mNames = names;
+        mBreeds = breeds;
+        mGenders = genders;
+        mWeights = weights;
+        mPhotos = photos;
+        mStrings = strings;
+    }
+
+    /**
+     * Copy every row of a cursor with the {@link #PROJECTION} columns. Call off the main thread,
+     * the first move fills the cursor window. A cursor without the photo column, such as the
+     * cold start snapshot, gives pets without photos.
+     */
+    public static PetSnapshot from(Cursor cursor) {
+        int count = cursor.getCount();
+        if (count == 0) {
+            return EMPTY;
+        }
+
+        int idColumnIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+        int breedColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+        int genderColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_GENDER);
+        int weightColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT);
+        int photoColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO);
+
+        Builder builder = new Builder(count);
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            builder.add(cursor.getLong(idColumnIndex),
+                    cursor.getString(nameColumnIndex),
+                    cursor.getString(breedColumnIndex),
+                    cursor.getInt(genderColumnIndex),
+                    cursor.getInt(weightColumnIndex),
+                    photoColumnIndex == -1 ? null : cursor.getString(photoColumnIndex));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Join pages into one snapshot, replacing pets by their latest values where changed and
+     * leaving out deleted pets.
+     */
+    public static PetSnapshot merge(List<PetSnapshot> pages, Map<Long, PetSnapshot> changedRows,
+                                    Set<Long> deletedRows) {
+        if (pages.size() == 1 && changedRows.isEmpty() && deletedRows.isEmpty()) {
+            return pages.get(0);
+        }
+
+        int count = 0;
+        for (PetSnapshot page : pages) {
+            count += page.size();
+        }
+
+        Builder builder = new Builder(count);
+        for (PetSnapshot page : pages) {
+            for (int i = 0; i < page.size(); i++) {
+                long id = page.mIds[i];
+                if (deletedRows.contains(id)) {
+                    continue;
+                }
+                PetSnapshot changed = changedRows.get(id);
+                if (changed != null && changed.size() == 1) {
+                    builder.add(changed, 0);
+                } else {
+                    builder.add(page, i);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return mIds.length;
+    }
+
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    public String getName(int position) {
+        return mStrings[mNames[position]];
+    }
+
+    // Null for pets without a breed
+    public String getBreed(int position) {
+        int breed = mBreeds[position];
+        return breed == -1 ? null : mStrings[breed];
+    }
+
+    public int getGender(int position) {
+        return mGenders[position];
+    }
+
+    public int getWeight(int position) {
+        return mWeights[position];
+    }
+
+    // File name of the photo, null for pets without one
+    public String getPhoto(int position) {
+        int photo = mPhotos[position];
+        return photo == -1 ? null : mStrings[photo];
+    }
+
+    /**
+     * Whether the pet at a position shows the same as the pet at another position of another
+     * snapshot. Names and breeds are compared by reference first, which is enough within one
+     * snapshot's string table.
+     */
+    public boolean contentEquals(int position, PetSnapshot other, int otherPosition) {
+        return equals(getName(position), other.getName(otherPosition))
+                && equals(getBreed(position), other.getBreed(otherPosition))
+                && mGenders[position] == other.mGenders[otherPosition]
+                && mWeights[position] == other.mWeights[otherPosition]
+                && equals(getPhoto(position), other.getPhoto(otherPosition));
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    /**
+     * Fills the arrays of a snapshot row by row, storing each distinct string once.
+     */
+    private static final class Builder {
+
+        private final long[] mIds;
+        private final int[] mNames;
+        private final int[] mBreeds;
+        private final int[] mGenders;
+        private final int[] mWeights;
+        private final int[] mPhotos;
+        private final Map<String, Integer> mStringIndexes = new HashMap<String, Integer>();
+        private int mSize;
+
+        Builder(int capacity) {
+            mIds = new long[capacity];
+            mNames = new int[capacity];
+            mBreeds = new int[capacity];
+            mGenders = new int[capacity];
+            mWeights = new int[capacity];
+            mPhotos = new int[capacity];
+        }
+
+        void add(long id, String name, String breed, int gender, int weight, String photo) {
+            mIds[mSize] = id;
+            mNames[mSize] = indexOf(name);
+            mBreeds[mSize] = breed == null ? -1 : indexOf(breed);
+            mGenders[mSize] = gender;
+            mWeights[mSize] = weight;
+            mPhotos[mSize] = photo == null ? -1 : indexOf(photo);
+            mSize++;
+        }
+
+        void add(PetSnapshot snapshot, int position) {
+            add(snapshot.mIds[position], snapshot.getName(position), snapshot.getBreed(position),
+                    snapshot.mGenders[position], snapshot.mWeights[position], snapshot.getPhoto(position));
+        }
+
+        private int indexOf(String string) {
+            Integer index = mStringIndexes.get(string);
+            if (index == null) {
+                index = mStringIndexes.size();
+                mStringIndexes.put(string, index);
+            }
+            return index;
+        }
+
+        PetSnapshot build() {
+            if (mSize == 0) {
+                return EMPTY;
+            }
+            String[] strings = new String[mStringIndexes.size()];
+            for (Map.Entry<String, Integer> entry : mStringIndexes.entrySet()) {
+                strings[entry.getValue()] = entry.getKey();
+            }
+
+            // Rows may have been left out while merging
+            if (mSize == mIds.length) {
+                return new PetSnapshot(mIds, mNames, mBreeds, mGenders, mWeights, mPhotos, strings);
+            }
+            return new PetSnapshot(Arrays.copyOf(mIds, mSize), Arrays.copyOf(mNames, mSize),
+                    Arrays.copyOf(mBreeds, mSize), Arrays.copyOf(mGenders, mSize), Arrays.copyOf(mWeights, mSize),
+                    Arrays.copyOf(mPhotos, mSize), strings);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.android.pets;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Thumbnails of pet photos for the list of pets. Thumbnails are kept in a memory LRU cache,
+ * backed by small JPEG files in the cache directory, and decoded from the photo itself only
+ * when neither has them. Photos are decoded subsampled to about the thumbnail size, so a
+ * full-size bitmap is never allocated.
+ *
+ * A photo file is never changed once written, a new photo gets a new file name, so thumbnails
+ * are cached by file name and never go stale.
+ */
+final class PetThumbnailCache {
+
+    private static final String LOG_TAG = PetThumbnailCache.class.getSimpleName();
+
+    // Directory of the disk cache, in the app's cache directory
+    private static final String DIRECTORY = "thumbnails";
+
+    // Oldest thumbnails are removed from disk past this size
+    private static final long MAX_DISK_BYTES = 8 * 1024 * 1024;
+
+    private static final int JPEG_QUALITY = 85;
+
+    private static PetThumbnailCache sInstance;
+
+    private final Context mContext;
+
+    // Width and height of the thumbnails, in pixels
+    private final int mSize;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDirectory;
+
+    // Loads run two at a time, the list shows only a few thumbnails at once
+    private final Executor mExecutor = Executors.newFixedThreadPool(2);
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Pending load of each view. Only used on the main thread
+    private final Map<ImageView, Load> mLoads = new WeakHashMap<ImageView, Load>();
+
+    /**
+     * Return the cache shared by the whole app.
+     */
+    static synchronized PetThumbnailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetThumbnailCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    // Constructor
+    private PetThumbnailCache(Context context) {
+        mContext = context;
+        mSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+        mDirectory = new File(context.getCacheDir(), DIRECTORY);
+
+        // An eighth of the memory the app may use
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / 8;
+        mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Show the thumbnail of the pet's photo in the view, right away if it is in memory, otherwise
+     * once loaded in the background. Any earlier load for the view is cancelled. Call on the main
+     * thread.
+     */
+    void load(ImageView view, long id, String photo) {
+        cancel(view);
+
+        String key = photo + "_" + mSize;
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        Load load = new Load(view, id, key);
+        mLoads.put(view, load);
+        mExecutor.execute(load);
+    }
+
+    /**
+     * Cancel the pending load of the view, if any, as when its item is recycled. Call on the
+     * main thread.
+     */
+    void cancel(ImageView view) {
+        Load load = mLoads.remove(view);
+        if (load != null) {
+            load.mCancelled.set(true);
+        }
+    }
+
+    // Return the thumbnail from disk, or decoded from the photo. Null if the photo can't be read
+    private Bitmap loadBitmap(long id, String key) {
+        File file = new File(mDirectory, key + ".jpg");
+        if (file.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+            if (bitmap != null) {
+                // Keep recently used thumbnails when trimming
+                file.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+        }
+
+        Bitmap bitmap = decodePhoto(id);
+        if (bitmap != null) {
+            writeThumbnail(file, bitmap);
+        }
+        return bitmap;
+    }
+
+    // Decode the photo subsampled by the largest power of two that keeps it at least the
+    // thumbnail size, then scale it down the rest of the way
+    private Bitmap decodePhoto(long id) {
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = mContext.getContentResolver().openFileDescriptor(PetEntry.buildPhotoUri(id), "r");
+            if (descriptor == null) {
+                return null;
+            }
+
+            // Read the size only, decoding leaves the position of the descriptor unchanged
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            int sampleSize = 1;
+            int shortSide = Math.min(options.outWidth, options.outHeight);
+            while (shortSide / (sampleSize * 2) >= mSize) {
+                sampleSize *= 2;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            Bitmap sampled = BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null, options);
+            if (sampled == null) {
+                return null;
+            }
+
+            float scale = (float) mSize / Math.min(sampled.getWidth(), sampled.getHeight());
+            if (scale >= 1) {
+                return sampled;
+            }
+            Bitmap scaled = Bitmap.createScaledBitmap(sampled, Math.round(sampled.getWidth() * scale),
+                    Math.round(sampled.getHeight() * scale), true);
+            if (scaled != sampled) {
+                sampled.recycle();
+            }
+            return scaled;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Couldn't read photo of pet " + id, e);
+            return null;
+        } finally {
+            if (descriptor != null) {
+                try {
+                    descriptor.close();
+                } catch (IOException e) {
+                    // Nothing was written
+                }
+            }
+        }
+    }
+
+    // Write the thumbnail to a temporary file and rename it, so readers never see part of one
+    private void writeThumbnail(File file, Bitmap bitmap) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+        File temp = new File(mDirectory, file.getName() + ".tmp" + Thread.currentThread().getId());
+        FileOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new FileOutputStream(temp);
+            written = bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Couldn't write thumbnail " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    written = false;
+                }
+            }
+        }
+
+        if (!written || !temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        trimDisk();
+    }
+
+    // Remove the least recently used thumbnails until the disk cache fits its size
+    private void trimDisk() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long bytes = 0;
+        for (File file : files) {
+            bytes += file.length();
+        }
+        if (bytes <= MAX_DISK_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long firstModified = first.lastModified();
+                long secondModified = second.lastModified();
+                return firstModified < secondModified ? -1 : firstModified == secondModified ? 0 : 1;
+            }
+        });
+        for (int i = 0; i < files.length && bytes > MAX_DISK_BYTES; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                bytes -= length;
+            }
+        }
+    }
+
+    /**
+     * Loads the thumbnail for one view, and shows it unless cancelled first.
+     */
+    private final class Load implements Runnable {
+
+        private final ImageView mView;
+        private final long mId;
+        private final String mKey;
+
+        // Set on the main thread when the view is bound to another pet or recycled
+        private final AtomicBoolean mCancelled = new AtomicBoolean();
+
+        Load(ImageView view, long id, String key) {
+            mView = view;
+            mId = id;
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            // Skip views scrolled past before their turn
+            if (mCancelled.get()) {
+                return;
+            }
+
+            final Bitmap bitmap = loadBitmap(mId, mKey);
+            if (bitmap != null) {
+                mMemoryCache.put(mKey, bitmap);
+            }
+
+            // Done with the view either way, a photo that can't be read leaves it empty
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled.get() && mLoads.get(mView) == Load.this) {
+                        mLoads.remove(mView);
+                        if (bitmap != null) {
+                            mView.setImageBitmap(bitmap);
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary copy of the first pets of the catalog, rewritten by {@link PetProvider} after committed
+ * changes and memory-mapped by the catalog at cold start, so something shows before the
+ * database is even open.
+ *
+ * Layout, big-endian: magic, version, pet count, then one offset per pet to its record. Each
+ * record is the _id (long), gender and weight (ints), then name and breed as a byte length
+ * followed by UTF-8 bytes, with a length of -1 for no breed.
+ */
+public final class CatalogSnapshotFile {
+
+    // Pets kept in the file, the first ones by _id, same as the catalog's first page
+    public static final int MAX_PETS = 50;
+
+    // Columns of the cursor returned by open(), and of the cursor given to write()
+    public static final String[] COLUMNS = {
+            PetEntry.COLUMN_ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    private static final String LOG_TAG = CatalogSnapshotFile.class.getSimpleName();
+
+    private static final String FILE_NAME = "catalog.snapshot";
+
+    // "PETS"
+    private static final int MAGIC = 0x50455453;
+
+    private static final int VERSION = 1;
+
+    // Magic, version and count
+    private static final int HEADER_SIZE = 12;
+
+    // Constructor
+    private CatalogSnapshotFile() { }
+
+    /**
+     * Return where the snapshot is kept. It is only a cache, so it lives in the cache directory.
+     */
+    public static File getFile(Context context) {
+        return new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * Replace the snapshot with the rows of a cursor with {@link #COLUMNS}. The file is written
+     * next to the old one and renamed over it, so readers never see half a snapshot.
+     */
+    static void write(File file, Cursor cursor) throws IOException {
+        int count = Math.min(cursor.getCount(), MAX_PETS);
+
+        // Records first, to know where each one starts
+        ByteArrayOutputStream records = new ByteArrayOutputStream(count * 48);
+        DataOutputStream recordsOut = new DataOutputStream(records);
+        int[] offsets = new int[count];
+        int recordsStart = HEADER_SIZE + count * 4;
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            offsets[i] = recordsStart + recordsOut.size();
+            recordsOut.writeLong(cursor.getLong(0));
+            recordsOut.writeInt(cursor.getInt(3));
+            recordsOut.writeInt(cursor.getInt(4));
+            writeString(recordsOut, cursor.getString(1));
+            writeString(recordsOut, cursor.isNull(2) ? null : cursor.getString(2));
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            records.writeTo(out);
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Map the snapshot and return a cursor over it with {@link #COLUMNS}, or null when there is
+     * no usable snapshot. Fast enough to call on the main thread at startup.
+     */
+    public static Cursor open(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            MappedByteBuffer buffer;
+            try {
+                // The mapping stays valid after the file is closed
+                buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+            } finally {
+                randomAccessFile.close();
+            }
+
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                Log.w(LOG_TAG, "Ignoring invalid snapshot " + file);
+                return null;
+            }
+            int count = buffer.getInt(8);
+            if (count < 0 || count > MAX_PETS || HEADER_SIZE + count * 4 > buffer.limit()) {
+                Log.w(LOG_TAG, "Ignoring invalid snapshot " + file);
+                return null;
+            }
+            return new MappedCursor(buffer, count);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot read snapshot " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Read-only cursor decoding each record straight from the mapped file as it is moved to.
+     */
+    private static final class MappedCursor extends AbstractCursor {
+
+        private final MappedByteBuffer mBuffer;
+        private final int mCount;
+
+        // Values of the current record
+        private long mId;
+        private String mName;
+        private String mBreed;
+        private int mGender;
+        private int mWeight;
+
+        MappedCursor(MappedByteBuffer buffer, int count) {
+            mBuffer = buffer;
+            mCount = count;
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            try {
+                mBuffer.position(mBuffer.getInt(HEADER_SIZE + newPosition * 4));
+                mId = mBuffer.getLong();
+                mGender = mBuffer.getInt();
+                mWeight = mBuffer.getInt();
+                mName = readString();
+                mBreed = readString();
+                return true;
+            } catch (BufferUnderflowException e) {
+                Log.w(LOG_TAG, "Truncated snapshot record " + newPosition);
+                return false;
+            } catch (IllegalArgumentException e) {
+                Log.w(LOG_TAG, "Invalid snapshot record " + newPosition);
+                return false;
+            }
+        }
+
+        private String readString() {
+            int length = mBuffer.getInt();
+            if (length == -1) {
+                return null;
+            }
+            if (length < 0 || length > mBuffer.remaining()) {
+                throw new IllegalArgumentException("Invalid string length " + length);
+            }
+            byte[] bytes = new byte[length];
+            mBuffer.get(bytes);
+            try {
+                return new String(bytes, "UTF-8");
+            } catch (IOException e) {
+                // UTF-8 is always supported
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return COLUMNS;
+        }
+
+        @Override
+        public String getString(int column) {
+            switch (column) {
+                case 1:
+                    return mName;
+                case 2:
+                    return mBreed;
+                default:
+                    return Long.toString(getLong(column));
+            }
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            switch (column) {
+                case 0:
+                    return mId;
+                case 3:
+                    return mGender;
+                case 4:
+                    return mWeight;
+                default:
+                    return Long.parseLong(getString(column));
+            }
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return column == 2 && mBreed == null;
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 /**
  * Created by kempm on 1/12/2017.
@@ -10,34 +13,117 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 public class PetDBHelper extends SQLiteOpenHelper {
 
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 8;
     public static final String DATABASE_NAME = "Pets.db";
 
+    // Database files of the other sites are named Pets-<site>.db, next to Pets.db
+    private static final String SITE_DATABASE_PREFIX = "Pets-";
+    private static final String SITE_DATABASE_SUFFIX = ".db";
+
     // Constructor
     public PetDBHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // Constructor for the database of a site, with the same schema as the main one
+    public PetDBHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+
+        // Use write-ahead logging, so readers keep going while a write is in progress.
+        // All writes still go through the one primary connection of getWritableDatabase()
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /**
+     * Name of the database file of the given site.
+     */
+    public static String databaseName(String site) {
+        return PetsContract.SITE_MAIN.equals(site) ? DATABASE_NAME
+                : SITE_DATABASE_PREFIX + site + SITE_DATABASE_SUFFIX;
+    }
 
+    /**
+     * Site of the given database file name, or null when it is not a site's database.
+     */
+    public static String siteOf(String name) {
+        if (DATABASE_NAME.equals(name)) {
+            return PetsContract.SITE_MAIN;
+        }
+        if (!name.startsWith(SITE_DATABASE_PREFIX) || !name.endsWith(SITE_DATABASE_SUFFIX)) {
+            return null;
+        }
+        String site = name.substring(SITE_DATABASE_PREFIX.length(), name.length() - SITE_DATABASE_SUFFIX.length());
+        return PetsContract.isValidSite(site) ? site : null;
     }
 
-    // On create, make a table
+    // On open, turn on write-ahead logging for older versions and tune checkpointing
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+
+        // These pragmas return a row, so they can't go through execSQL
+        DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint=" + PetSchema.WAL_AUTOCHECKPOINT_PAGES, null);
+        DatabaseUtils.longForQuery(db, "PRAGMA journal_size_limit=" + PetSchema.WAL_SIZE_LIMIT_BYTES, null);
+
+        // With a write-ahead log, syncing at checkpoints only is still safe from corruption
+        db.execSQL("PRAGMA synchronous=NORMAL");
+    }
+
+    // On create, make a table with its indexes, search table, stats table, change log and photo trash
     @Override
     public void onCreate(SQLiteDatabase db) {
-        String SQL_CREATE_PETS_TABLE =
-                "CREATE TABLE " + PetsContract.PetEntry.TABLE_NAME + " (" +
-                        PetsContract.PetEntry.COLUMN_ID + " INTEGER PRIMARY KEY," +
-                        PetsContract.PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL," +
-                        PetsContract.PetEntry.COLUMN_PET_BREED + " TEXT," +
-                        PetsContract.PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL," +
-                        PetsContract.PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
-        db.execSQL(SQL_CREATE_PETS_TABLE);
+        execAll(db, PetSchema.SQL_CREATE_SCHEMA);
     }
 
-    // On upgrade, delete and remake table
+    private static void execAll(SQLiteDatabase db, String[] statements) {
+        for (String statement : statements) {
+            db.execSQL(statement);
+        }
+    }
+
+    // On upgrade, apply each schema change since the old version, keeping existing pets
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        String SQL_DELETE_ENTRIES =
-                "DROP TABLE IF EXISTS " + PetsContract.PetEntry.TABLE_NAME;
-        db.execSQL(SQL_DELETE_ENTRIES);
-        onCreate(db);
+        if (oldVersion < 2) {
+            execAll(db, PetSchema.SQL_CREATE_INDEXES);
+        }
+        if (oldVersion < 3) {
+            execAll(db, PetSchema.SQL_CREATE_SEARCH_TABLE);
+        }
+        if (oldVersion < 4) {
+            execAll(db, PetSchema.SQL_CREATE_STATS_TABLE);
+        }
+        if (oldVersion < 5) {
+            execAll(db, PetSchema.SQL_CREATE_CHANGES_TABLE);
+        }
+        if (oldVersion < 6) {
+            execAll(db, PetSchema.SQL_CREATE_LOCALIZED_INDEXES);
+        }
+        if (oldVersion < 7) {
+            db.execSQL(PetSchema.SQL_ADD_PHOTO_COLUMN);
+
+            // Truncated pets not purged yet get the column too, as the purge copies their photos
+            Cursor purgeTables = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name GLOB ?",
+                    new String[] { PetSchema.PURGE_PETS_PREFIX + "*" });
+            try {
+                while (purgeTables.moveToNext()) {
+                    db.execSQL("ALTER TABLE " + purgeTables.getString(0) + " ADD COLUMN " + PetSchema.COLUMN_PHOTO + " TEXT;");
+                }
+            } finally {
+                purgeTables.close();
+            }
+            execAll(db, PetSchema.SQL_CREATE_PHOTO_TRASH_TABLE);
+        }
+        if (oldVersion < 8) {
+            execAll(db, PetSchema.SQL_CREATE_NOCASE_INDEXES);
+        }
     }
 }
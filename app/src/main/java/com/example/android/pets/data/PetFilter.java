@@ -0,0 +1,161 @@
+package com.example.android.pets.data;
+
+import android.net.Uri;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Which pets a query of {@link PetEntry#CONTENT_URI} returns, sent as query parameters so the
+ * provider filters them in SQL. Each part is optional, and null when not set.
+ */
+public final class PetFilter {
+
+    // Filter letting every pet through
+    public static final PetFilter NONE = new PetFilter(null, null, null, null);
+
+    // U+10FFFF, the last character there is. SQLite compares NOCASE text by its UTF-8 bytes with
+    // ASCII letters folded, so every breed starting with a prefix sorts before the prefix and this
+    private static final String BREED_PREFIX_END = new String(Character.toChars(Character.MAX_CODE_POINT));
+
+    private final Integer mGender;
+    private final String mBreed;
+    private final Integer mMinWeight;
+    private final Integer mMaxWeight;
+
+    // Constructor
+    public PetFilter(Integer gender, String breed, Integer minWeight, Integer maxWeight) {
+        if (gender != null && !PetEntry.isValidGender(gender)) {
+            throw new IllegalArgumentException("Invalid gender " + gender);
+        }
+        mGender = gender;
+        mBreed = breed;
+        mMinWeight = minWeight;
+        mMaxWeight = maxWeight;
+    }
+
+    /**
+     * Read the filter from the query parameters of a URI.
+     */
+    public static PetFilter fromUri(Uri uri) {
+        return new PetFilter(
+                parseInt(uri, PetsContract.QUERY_PARAM_GENDER),
+                uri.getQueryParameter(PetsContract.QUERY_PARAM_BREED),
+                parseInt(uri, PetsContract.QUERY_PARAM_MIN_WEIGHT),
+                parseInt(uri, PetsContract.QUERY_PARAM_MAX_WEIGHT));
+    }
+
+    private static Integer parseInt(Uri uri, String parameter) {
+        String value = uri.getQueryParameter(parameter);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + parameter + " for " + uri);
+        }
+    }
+
+    /**
+     * Return the URI with the filter added to its query parameters.
+     */
+    public Uri applyTo(Uri uri) {
+        if (isEmpty()) {
+            return uri;
+        }
+        Uri.Builder builder = uri.buildUpon();
+        if (mGender != null) {
+            builder.appendQueryParameter(PetsContract.QUERY_PARAM_GENDER, String.valueOf(mGender));
+        }
+        if (mBreed != null) {
+            builder.appendQueryParameter(PetsContract.QUERY_PARAM_BREED, mBreed);
+        }
+        if (mMinWeight != null) {
+            builder.appendQueryParameter(PetsContract.QUERY_PARAM_MIN_WEIGHT, String.valueOf(mMinWeight));
+        }
+        if (mMaxWeight != null) {
+            builder.appendQueryParameter(PetsContract.QUERY_PARAM_MAX_WEIGHT, String.valueOf(mMaxWeight));
+        }
+        return builder.build();
+    }
+
+    public boolean isEmpty() {
+        return mGender == null && mBreed == null && mMinWeight == null && mMaxWeight == null;
+    }
+
+    /**
+     * Selection matching the filtered pets, with every value as an argument of
+     * {@link #toSelectionArgs()}. The breed matches breeds starting with it, ignoring case as
+     * it is typed freely. It is a range of NOCASE breeds, from the breed itself to the breed
+     * followed by the last character there is, so it can use the NOCASE breed index, which
+     * LIKE can't with an escape character. Other conditions can use the index on their column.
+     */
+    String toSelection() {
+        List<String> conditions = new ArrayList<String>();
+        if (mGender != null) {
+            conditions.add(PetEntry.COLUMN_PET_GENDER + " = ?");
+        }
+        if (mBreed != null) {
+            conditions.add(PetEntry.COLUMN_PET_BREED + " >= ? COLLATE NOCASE");
+            conditions.add(PetEntry.COLUMN_PET_BREED + " < ? COLLATE NOCASE");
+        }
+        if (mMinWeight != null) {
+            conditions.add(PetEntry.COLUMN_PET_WEIGHT + " >= ?");
+        }
+        if (mMaxWeight != null) {
+            conditions.add(PetEntry.COLUMN_PET_WEIGHT + " <= ?");
+        }
+
+        StringBuilder selection = new StringBuilder();
+        for (String condition : conditions) {
+            if (selection.length() > 0) {
+                selection.append(" AND ");
+            }
+            selection.append(condition);
+        }
+        return selection.toString();
+    }
+
+    String[] toSelectionArgs() {
+        List<String> args = new ArrayList<String>();
+        if (mGender != null) {
+            args.add(String.valueOf(mGender));
+        }
+        if (mBreed != null) {
+            args.add(mBreed);
+            args.add(mBreed + BREED_PREFIX_END);
+        }
+        if (mMinWeight != null) {
+            args.add(String.valueOf(mMinWeight));
+        }
+        if (mMaxWeight != null) {
+            args.add(String.valueOf(mMaxWeight));
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PetFilter)) {
+            return false;
+        }
+        PetFilter other = (PetFilter) o;
+        return equals(mGender, other.mGender) && equals(mBreed, other.mBreed)
+                && equals(mMinWeight, other.mMinWeight) && equals(mMaxWeight, other.mMaxWeight);
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = mGender == null ? 0 : mGender;
+        hash = 31 * hash + (mBreed == null ? 0 : mBreed.hashCode());
+        hash = 31 * hash + (mMinWeight == null ? 0 : mMinWeight);
+        return 31 * hash + (mMaxWeight == null ? 0 : mMaxWeight);
+    }
+}
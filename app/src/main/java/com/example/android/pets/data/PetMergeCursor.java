@@ -0,0 +1,170 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Pets of several sites in one cursor, sorted by one column. Each site's cursor must already be
+ * sorted by that column, strings for the current locale as with COLLATE LOCALIZED. The order of
+ * the merged rows is worked out once, up front, by merging the site cursors, so moving to a row
+ * is a lookup. The site of each row is added as a last column, {@link PetEntry#COLUMN_SITE}.
+ */
+final class PetMergeCursor extends AbstractCursor {
+
+    private final Cursor[] mCursors;
+    private final String[] mSites;
+    private final String[] mColumnNames;
+
+    // Index of the site column, after the columns of the site cursors
+    private final int mSiteColumn;
+
+    // Site cursor and position in it of each merged row
+    private final int[] mCursorOf;
+    private final int[] mPositionOf;
+
+    // Site cursor of the current row
+    private Cursor mCurrent;
+
+    /**
+     * Merge the given cursors, which all have the same columns, the one at each index holding the
+     * pets of the site at the same index.
+     */
+    PetMergeCursor(Cursor[] cursors, String[] sites, String sortColumn, boolean descending) {
+        mCursors = cursors;
+        mSites = sites;
+
+        String[] columnNames = cursors[0].getColumnNames();
+        mSiteColumn = columnNames.length;
+        mColumnNames = Arrays.copyOf(columnNames, columnNames.length + 1);
+        mColumnNames[mSiteColumn] = PetEntry.COLUMN_SITE;
+
+        int count = 0;
+        for (Cursor cursor : cursors) {
+            count += cursor.getCount();
+        }
+        mCursorOf = new int[count];
+        mPositionOf = new int[count];
+        merge(cursors[0].getColumnIndexOrThrow(sortColumn), descending);
+    }
+
+    // Fill in the site cursor and position of each merged row, taking the smallest current row of
+    // all site cursors each time. Equal rows keep the order of their sites
+    private void merge(final int sortColumn, final boolean descending) {
+        final Collator collator = Collator.getInstance();
+        PriorityQueue<Integer> heads = new PriorityQueue<Integer>(mCursors.length, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                int order = compareValues(mCursors[first], mCursors[second], sortColumn, collator);
+                if (descending) {
+                    order = -order;
+                }
+                return order != 0 ? order : first.compareTo(second);
+            }
+        });
+
+        for (int i = 0; i < mCursors.length; i++) {
+            if (mCursors[i].moveToFirst()) {
+                heads.add(i);
+            }
+        }
+        for (int row = 0; !heads.isEmpty(); row++) {
+            int i = heads.poll();
+            mCursorOf[row] = i;
+            mPositionOf[row] = mCursors[i].getPosition();
+            if (mCursors[i].moveToNext()) {
+                heads.add(i);
+            }
+        }
+    }
+
+    // Compare a column of the current rows of two cursors, nulls first as in SQLite
+    private static int compareValues(Cursor first, Cursor second, int column, Collator collator) {
+        boolean firstNull = first.isNull(column);
+        boolean secondNull = second.isNull(column);
+        if (firstNull || secondNull) {
+            return firstNull == secondNull ? 0 : firstNull ? -1 : 1;
+        }
+        if (first.getType(column) == FIELD_TYPE_STRING || second.getType(column) == FIELD_TYPE_STRING) {
+            return collator.compare(first.getString(column), second.getString(column));
+        }
+        long firstValue = first.getLong(column);
+        long secondValue = second.getLong(column);
+        return firstValue < secondValue ? -1 : firstValue == secondValue ? 0 : 1;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        mCurrent = mCursors[mCursorOf[newPosition]];
+        return mCurrent.moveToPosition(mPositionOf[newPosition]);
+    }
+
+    @Override
+    public int getCount() {
+        return mCursorOf.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        return column == mSiteColumn ? mSites[mCursorOf[getPosition()]] : mCurrent.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return column == mSiteColumn ? 0 : mCurrent.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return column == mSiteColumn ? 0 : mCurrent.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return column == mSiteColumn ? 0 : mCurrent.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return column == mSiteColumn ? 0 : mCurrent.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return column == mSiteColumn ? 0 : mCurrent.getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return column == mSiteColumn ? super.getBlob(column) : mCurrent.getBlob(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return column == mSiteColumn ? FIELD_TYPE_STRING : mCurrent.getType(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return column != mSiteColumn && mCurrent.isNull(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (Cursor cursor : mCursors) {
+            cursor.close();
+        }
+    }
+}
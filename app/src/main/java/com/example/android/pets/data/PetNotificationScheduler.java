@@ -0,0 +1,152 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the change notifications of {@link PetProvider}, at most one round per window. A change
+ * after a quiet window is notified right away. Changes within the window after that wait for
+ * its end, and are then sent together with each URI only once, so a burst of writes reloads
+ * each listener once per window instead of once per write.
+ */
+class PetNotificationScheduler {
+
+    private final ContentResolver mResolver;
+
+    // Notified instead of its rows when it is pending itself or when more than mMaxUris are
+    private final Uri mTableUri;
+    private final int mMaxUris;
+
+    // Sends pending notifications at the end of a window
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            List<Uri> uris;
+            synchronized (PetNotificationScheduler.this) {
+                mScheduledFlush = null;
+                uris = takePending();
+            }
+            send(uris);
+        }
+    };
+
+    // URIs waiting for the end of the window, in the order they were first notified
+    private final Set<Uri> mPending = new LinkedHashSet<Uri>();
+
+    // Flush of the pending URIs, null when none is scheduled
+    private ScheduledFuture<?> mScheduledFlush;
+
+    // SystemClock.uptimeMillis() at which the current window ends
+    private long mWindowEndMs;
+
+    private long mWindowMs;
+
+    // Notifications asked for and sent, the difference being the ones merged into others
+    private long mRequestedCount;
+    private long mSentCount;
+
+    // Constructor
+    PetNotificationScheduler(ContentResolver resolver, Uri tableUri, int maxUris, long windowMs) {
+        mResolver = resolver;
+        mTableUri = tableUri;
+        mMaxUris = maxUris;
+        mWindowMs = windowMs;
+    }
+
+    /**
+     * Change how long notifications are held back after one is sent. 0 sends every one right away.
+     */
+    synchronized void setWindowMs(long windowMs) {
+        if (windowMs < 0) {
+            throw new IllegalArgumentException("Invalid notification window " + windowMs);
+        }
+        mWindowMs = windowMs;
+    }
+
+    /**
+     * Notify a change at the URI, right away after a quiet window, otherwise at the end of the
+     * current window.
+     */
+    void notifyChange(Uri uri) {
+        synchronized (this) {
+            mRequestedCount++;
+            long now = SystemClock.uptimeMillis();
+            if (mScheduledFlush != null || now < mWindowEndMs) {
+                mPending.add(uri);
+                if (mScheduledFlush == null) {
+                    mScheduledFlush = mExecutor.schedule(mFlush, mWindowEndMs - now, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            mWindowEndMs = now + mWindowMs;
+            mSentCount++;
+        }
+        send(Collections.singletonList(uri));
+    }
+
+    /**
+     * Notify changes at the URIs right away, along with everything pending, as at the end of a
+     * batch. A new window starts from here.
+     */
+    void notifyNow(Collection<Uri> uris) {
+        List<Uri> pending;
+        synchronized (this) {
+            mRequestedCount += uris.size();
+            mPending.addAll(uris);
+            if (mScheduledFlush != null) {
+                mScheduledFlush.cancel(false);
+                mScheduledFlush = null;
+            }
+            pending = takePending();
+        }
+        send(pending);
+    }
+
+    // Empty the pending URIs and start a new window. Return the URIs to send
+    private List<Uri> takePending() {
+        List<Uri> uris;
+        if (mPending.size() > mMaxUris || mPending.contains(mTableUri)) {
+            // Notifying the table notifies listeners of its rows as well
+            uris = Collections.singletonList(mTableUri);
+        } else {
+            uris = new ArrayList<Uri>(mPending);
+        }
+        mPending.clear();
+        mWindowEndMs = SystemClock.uptimeMillis() + mWindowMs;
+        mSentCount += uris.size();
+        return uris;
+    }
+
+    private void send(List<Uri> uris) {
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    synchronized long requestedCount() {
+        return mRequestedCount;
+    }
+
+    synchronized long sentCount() {
+        return mSentCount;
+    }
+
+    // Notifications merged into others, or pending
+    synchronized long suppressedCount() {
+        return mRequestedCount - mSentCount;
+    }
+}
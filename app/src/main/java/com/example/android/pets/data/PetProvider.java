@@ -1,16 +1,53 @@
 package com.example.android.pets.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.example.android.pets.data.PetsContract.MetricsEntry;
 import com.example.android.pets.data.PetsContract.PetEntry;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * {@link ContentProvider} for Pets app.
  */
@@ -22,11 +59,111 @@ public class PetProvider extends ContentProvider {
     // Object to access pet database
     private PetDBHelper mDbHelper;
 
+    // The database, opened on a background thread when the provider is created
+    private FutureTask<SQLiteDatabase> mDatabase;
+
+    // Databases of the sites other than the main one, opened when first used
+    private PetSiteDatabases mSites;
+
+    // Queries the sites in parallel when pets of every site are read
+    private final ExecutorService mSiteQueryExecutor = Executors.newFixedThreadPool(SITE_QUERY_THREADS);
+
+    // Number of sites queried at the same time
+    private static final int SITE_QUERY_THREADS = 4;
+
+    // Compiled statements for the by-id update and delete, created on first use
+    private volatile PetStatementCache mStatements;
+
+    // Recently used pets, to answer by-id queries without going to the database
+    private final PetRowCache mRowCache = new PetRowCache(ROW_CACHE_SIZE);
+
+    // Latency and counters of every call, read through the metrics URI
+    private final PetProviderMetrics mMetrics = new PetProviderMetrics();
+
+    // Change notifications held back while a batch runs on the current thread, null otherwise
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<Set<Uri>>();
+
+    // Sends change notifications, merging those of a burst of writes
+    private PetNotificationScheduler mNotifications;
+
+    // How long a batch sleeps when it yields its transaction to other threads
+    private static final long YIELD_SLEEP_MS = 0;
+
+    // Number of single pets kept in memory for by-id queries
+    private static final int ROW_CACHE_SIZE = 256;
+
+    // Above this many changed rows, listeners are told the whole table changed instead of each row
+    private static final int MAX_ROW_NOTIFICATIONS = 50;
+
+    // How long change notifications are merged after one is sent, until changed through call()
+    private static final long NOTIFICATION_WINDOW_MS = 100;
+
+    // Pets read per query while exporting, and inserted per transaction while importing
+    private static final int TRANSFER_CHUNK_SIZE = 500;
+
+    // Size of the character buffers of exported and imported files
+    private static final int TRANSFER_BUFFER_SIZE = 16 * 1024;
+
+    // Runs imports one at a time, each reading its pipe until the writer closes it
+    private final Executor mImportExecutor = Executors.newSingleThreadExecutor();
+
+    // Rewrites the catalog's cold start snapshot after commits, one write at a time
+    private final Executor mSnapshotExecutor = Executors.newSingleThreadExecutor();
+
+    // Whether a snapshot write is queued and has not read the database yet, so commits
+    // in the meantime don't need another one
+    private final AtomicBoolean mSnapshotPending = new AtomicBoolean();
+
+    // Whether the snapshot was written since the process started
+    private volatile boolean mSnapshotWritten;
+
+    // Purges the rows of truncated tables in the background, one chunk per transaction
+    private final Executor mPurgeExecutor = Executors.newSingleThreadExecutor();
+
+    // Whether a purge is queued and has not started yet
+    private final AtomicBoolean mPurgePending = new AtomicBoolean();
+
+    // Saves photos written to the provider, one at a time
+    private final Executor mPhotoExecutor = Executors.newSingleThreadExecutor();
+
+    // Directory of the photo files, under the app's files directory
+    private static final String PHOTO_DIRECTORY = "photos";
+
+    // Photo files deleted per transaction while emptying the photo trash
+    private static final int PHOTO_TRASH_CHUNK_SIZE = 100;
+
+    // Rows deleted per transaction while purging truncated tables
+    private static final int PURGE_CHUNK_SIZE = 500;
+
     // Code for pets table
-    private static final int PETS = 100;
+    static final int PETS = 100;
 
     // Code for single pet in table
-    private static final int PET_ID = 101;
+    static final int PET_ID = 101;
+
+    // Code for full text search over pets
+    private static final int PETS_SEARCH = 102;
+
+    // Code for the pet stats
+    private static final int PETS_STATS = 103;
+
+    // Code for exporting every pet as a file
+    private static final int PETS_EXPORT = 104;
+
+    // Code for importing pets from a file
+    private static final int PETS_IMPORT = 105;
+
+    // Code for the pets changed since a given change
+    private static final int PETS_CHANGES = 106;
+
+    // Code for the photo of a single pet
+    private static final int PET_PHOTO = 107;
+
+    // Code for the provider metrics
+    private static final int METRICS = 200;
+
+    // Code for the slow call log
+    private static final int SLOW_QUERIES = 201;
 
     // Matches content uri to its corresponding code (table or single pet)
     // Constructor is code to return for the root uri
@@ -40,6 +177,51 @@ public class PetProvider extends ContentProvider {
         // Content uri patterns the provider should recognize, followed by codes to return when match is found
         sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_PETS, PETS);
         sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_PETS + "/#", PET_ID);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_SEARCH, PETS_SEARCH);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_STATS, PETS_STATS);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_EXPORT, PETS_EXPORT);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_IMPORT, PETS_IMPORT);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_CHANGES, PETS_CHANGES);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/#/" + PetsContract.PATH_PHOTO, PET_PHOTO);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_METRICS, METRICS);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_METRICS + "/" + PetsContract.PATH_SLOW_QUERIES, SLOW_QUERIES);
+    }
+
+    /**
+     * Name of a URI match code, as reported in the metrics.
+     */
+    static String matchName(int match) {
+        switch (match) {
+            case PETS:
+                return "PETS";
+            case PET_ID:
+                return "PET_ID";
+            case PETS_SEARCH:
+                return "PETS_SEARCH";
+            case PETS_STATS:
+                return "PETS_STATS";
+            case PETS_EXPORT:
+                return "PETS_EXPORT";
+            case PETS_IMPORT:
+                return "PETS_IMPORT";
+            case PETS_CHANGES:
+                return "PETS_CHANGES";
+            case PET_PHOTO:
+                return "PET_PHOTO";
+            case METRICS:
+                return "METRICS";
+            case SLOW_QUERIES:
+                return "SLOW_QUERIES";
+            default:
+                return "NO_MATCH";
+        }
     }
 
     /**
@@ -47,48 +229,259 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public boolean onCreate() {
+        StartupTrace.markProcessStart();
 
         // Initialize PetDbHelper object to gain access to the pet database
         mDbHelper = new PetDBHelper(getContext());
+        mSites = new PetSiteDatabases(getContext());
+
+        mNotifications = new PetNotificationScheduler(getContext().getContentResolver(),
+                PetEntry.CONTENT_URI, MAX_ROW_NOTIFICATIONS, NOTIFICATION_WINDOW_MS);
+
+        // Open the database and run any upgrade in the background, instead of on whichever
+        // thread asks first, often the main thread. Callers wait for it in getDatabase()
+        mDatabase = new FutureTask<SQLiteDatabase>(new Callable<SQLiteDatabase>() {
+            @Override
+            public SQLiteDatabase call() {
+                return openDatabase();
+            }
+        });
+        new Thread(mDatabase, "PetProvider-open").start();
+
+        // Finish purging pets truncated before the process last stopped
+        schedulePurge();
 
         return true;
     }
 
+    /**
+     * Open the database, then read what the catalog asks for first so its pages are already
+     * cached by SQLite and the file system when it does.
+     */
+    private SQLiteDatabase openDatabase() {
+        SQLiteDatabase database;
+        StartupTrace.beginSection("PetProvider.openDatabase");
+        try {
+            database = mDbHelper.getWritableDatabase();
+        } finally {
+            StartupTrace.endSection();
+        }
+        StartupTrace.mark("Database open");
+
+        StartupTrace.beginSection("PetProvider.warmPageCache");
+        try {
+            warm(database.query(PetEntry.TABLE_NAME, CatalogSnapshotFile.COLUMNS, null, null, null, null,
+                    PetEntry.COLUMN_ID, String.valueOf(CatalogSnapshotFile.MAX_PETS)));
+            warm(database.rawQuery(PetSchema.SQL_QUERY_STATS, null));
+        } catch (SQLException e) {
+            // Only a missed optimization, the real query will report any problem
+            Log.w(LOG_TAG, "Cannot warm page cache", e);
+        } finally {
+            StartupTrace.endSection();
+        }
+        StartupTrace.mark("Page cache warm");
+
+        return database;
+    }
+
+    // Read every row of a cursor and close it
+    private static void warm(Cursor cursor) {
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the database, waiting for the background open to finish if needed. If it failed,
+     * opening is tried again on this thread, so the caller gets the error.
+     */
+    private SQLiteDatabase getDatabase() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return mDatabase.get();
+                } catch (InterruptedException e) {
+                    // Keep waiting, the open can't be abandoned half way
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Log.w(LOG_TAG, "Background database open failed", e.getCause());
+                    return mDbHelper.getWritableDatabase();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Return the database of the given site.
+     */
+    private SQLiteDatabase getDatabase(String site) {
+        return PetsContract.SITE_MAIN.equals(site) ? getDatabase() : mSites.get(site);
+    }
+
+    /**
+     * Return the site of the given URI, the main site when it has none.
+     */
+    private static String getSite(Uri uri) {
+        String site = uri.getQueryParameter(PetsContract.QUERY_PARAM_SITE);
+        if (site == null) {
+            return PetsContract.SITE_MAIN;
+        }
+        if (!PetsContract.isValidSite(site)) {
+            throw new IllegalArgumentException("Invalid site for " + uri);
+        }
+        return site;
+    }
+
+    /**
+     * Whether the given URI is at the main site, whose pets are the only ones cached and written
+     * through compiled statements.
+     */
+    private static boolean isMainSite(Uri uri) {
+        return PetsContract.SITE_MAIN.equals(getSite(uri));
+    }
+
+    /**
+     * Return the compiled statements of the database, compiling none until they are needed.
+     */
+    private PetStatementCache getStatements() {
+        PetStatementCache statements = mStatements;
+        if (statements == null) {
+            synchronized (this) {
+                statements = mStatements;
+                if (statements == null) {
+                    statements = new PetStatementCache(getDatabase());
+                    mStatements = statements;
+                }
+            }
+        }
+        return statements;
+    }
+
     /**
      * Perform query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
 
-        // Access database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        // Find out what kind of input uri was passed in
+        int match = sUriMatcher.match(uri);
+
+        // Reading the metrics is not measured
+        if (match == METRICS) {
+            return mMetrics.query(projection, mRowCache, mNotifications);
+        }
+        if (match == SLOW_QUERIES) {
+            return mMetrics.querySlowCalls(projection);
+        }
+
+        long startTime = System.nanoTime();
+        Cursor cursor = null;
+        try {
+            cursor = query(match, uri, projection, selection, selectionArgs, sortOrder);
+
+            // The rows are counted once the caller has read them, so the provider doesn't fill
+            // a window just for the metrics
+            return mMetrics.countRowsOnClose(cursor, MetricsEntry.OPERATION_QUERY, matchName(match));
+        } finally {
+            mMetrics.record(MetricsEntry.OPERATION_QUERY, matchName(match), startTime, cursor == null,
+                    0, uri, selection);
+        }
+    }
+
+    private Cursor query(int match, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                         String sortOrder) {
+
+        // "content://com.example.android.pets/pets?site=*
+        if (match == PETS && PetsContract.ALL_SITES.equals(uri.getQueryParameter(PetsContract.QUERY_PARAM_SITE))) {
+            Cursor cursor = queryAllSites(uri, projection, selection, selectionArgs, sortOrder);
+            cursor.setNotificationUri(getContext().getContentResolver(), PetEntry.CONTENT_URI);
+            return cursor;
+        }
+
+        // Access the database of the site in the URI
+        SQLiteDatabase database = getDatabase(getSite(uri));
 
         // What is returned from query
         Cursor cursor;
 
-        // Find out what kind of input uri was passed in
-        int match = sUriMatcher.match(uri);
-
         // Decide which path to go down
         switch (match) {
             case PETS:
 
                 // "content://com.example.android.pets/pets/
+                // "content://com.example.android.pets/pets?page_size=50&after_id=120
+
+                // The snapshot may be missing or older than the database, e.g. after a restore,
+                // so the first catalog query of the process refreshes it
+                if (!mSnapshotWritten && isMainSite(uri)) {
+                    scheduleCatalogSnapshot();
+                }
+
+                // Narrow the pets down to the filter in the URI, in SQL
+                PetFilter filter = PetFilter.fromUri(uri);
+                if (!filter.isEmpty()) {
+                    selection = selection == null
+                            ? filter.toSelection()
+                            : "(" + selection + ") AND " + filter.toSelection();
+                    selectionArgs = concat(selectionArgs, filter.toSelectionArgs());
+                }
+
+                // Only return one page when asked to
+                if (uri.getQueryParameter(PetsContract.QUERY_PARAM_PAGE_SIZE) != null) {
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs);
+                    break;
+                }
 
                 // Perform a query on whole table pets
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder );
+                cursor = queryPets(database, projection, selection, selectionArgs, sortOrder, null);
 
                 break;
             case PET_ID:
 
                 // "content://com.example.android.pets/pets/3
 
+                // Answer from the row cache when it has every column asked for
+                if (PetRowCache.canProject(projection) && isMainSite(uri)) {
+                    cursor = queryCachedPet(database, ContentUris.parseId(uri), projection);
+                    break;
+                }
+
                 // Extract out the ID from the uri ( SELECT ... FROM pets WHERE ID = "3" )
                 selection = PetEntry.COLUMN_ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri))};
 
                 // Perform query on pets table where _id equals 3 to return a cursor containing that row
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                cursor = queryPets(database, projection, selection, selectionArgs, sortOrder, null);
+
+                break;
+            case PETS_SEARCH:
+
+                // "content://com.example.android.pets/pets/search?q=tot
+
+                cursor = searchPets(database, uri, projection, selection, selectionArgs, sortOrder);
+
+                break;
+            case PETS_STATS:
+
+                // "content://com.example.android.pets/pets/stats
+
+                // Only reads the running totals, which are a few rows per gender and breed
+                cursor = database.query("(" + PetSchema.SQL_QUERY_STATS + ")", projection, selection,
+                        selectionArgs, null, null, sortOrder);
+
+                break;
+            case PETS_CHANGES:
+
+                // "content://com.example.android.pets/pets/changes?since=42
+
+                cursor = queryChanges(database, uri, projection, selection, selectionArgs, sortOrder);
 
                 break;
             default:
@@ -97,196 +490,1491 @@ public class PetProvider extends ContentProvider {
 
         // Set notification URI on the cursor so we know the content URI that the cursor was created for.
         // If the data at this URI changes, we know we need to update the cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // Search results, stats and changes can change with any pet, and row changes are notified
+        // under the pets URI
+        cursor.setNotificationUri(getContext().getContentResolver(),
+                match == PETS_SEARCH || match == PETS_STATS || match == PETS_CHANGES ? PetEntry.CONTENT_URI : uri);
 
         return cursor;
     }
 
     /**
-     * Insert new data into the provider with the given ContentValues.
+     * Query the pets of every site, each site on a thread of the site query executor, and merge
+     * them into one cursor with the site of each pet. Sites can only be merged by one of the
+     * sort keys of pages, followed by ASC or DESC, and are sorted by _id by default.
      */
-    @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
-
-        // Find what kind of uri was passed in
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return insertPet(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+    private Cursor queryAllSites(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                 String sortOrder) {
+        if (uri.getQueryParameter(PetsContract.QUERY_PARAM_PAGE_SIZE) != null) {
+            throw new IllegalArgumentException("Pages are not supported across sites for " + uri);
         }
-    }
-
-    private Uri insertPet(Uri uri, ContentValues contentValues) {
 
-        // Check that the name is not null
-        String name = contentValues.getAsString(PetEntry.COLUMN_PET_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Pet requires a name");
+        // Split a sort order such as "weight DESC"
+        String sortKey = PetEntry.COLUMN_ID;
+        boolean descending = false;
+        if (sortOrder != null) {
+            String[] terms = sortOrder.trim().split("\\s+");
+            sortKey = terms[0];
+            descending = terms.length == 2 && "DESC".equalsIgnoreCase(terms[1]);
+            if (!PetEntry.isValidSortKey(sortKey) || terms.length > 2
+                    || (terms.length == 2 && !descending && !"ASC".equalsIgnoreCase(terms[1]))) {
+                throw new IllegalArgumentException("Cannot sort pets of every site by " + sortOrder);
+            }
         }
 
-        // Check that the gender is 1, 2, or 0
-        Integer gender = contentValues.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-        if (gender == null || !PetEntry.isValidGender(gender)) {
-            throw new IllegalArgumentException("Pet requires valid gender");
-        }
+        // Each site sorts strings the way the merge compares them
+        boolean localized = PetEntry.COLUMN_PET_NAME.equals(sortKey) || PetEntry.COLUMN_PET_BREED.equals(sortKey);
+        final String orderBy = sortKey + (localized ? " COLLATE LOCALIZED" : "") + (descending ? " DESC" : "");
 
-        // Check that the weight is valid
-        Integer weight = contentValues.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-        if (weight != null && weight < 0) {
-            throw new IllegalArgumentException("Pet requires a valid weight");
+        // The merge reads the sort key of every row
+        if (projection != null && !Arrays.asList(projection).contains(sortKey)) {
+            projection = concat(projection, new String[] { sortKey });
         }
 
-        // Access database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        PetFilter filter = PetFilter.fromUri(uri);
+        if (!filter.isEmpty()) {
+            selection = selection == null
+                    ? filter.toSelection()
+                    : "(" + selection + ") AND " + filter.toSelection();
+            selectionArgs = concat(selectionArgs, filter.toSelectionArgs());
+        }
 
-        // Insert a new pet into the pets database table with the given ContentValues
-        long id = database.insert(PetsContract.PetEntry.TABLE_NAME, null, contentValues);
+        // Start every site's query before waiting for any of them
+        List<String> sites = new ArrayList<String>();
+        sites.add(PetsContract.SITE_MAIN);
+        sites.addAll(mSites.sites());
+        List<Future<Cursor>> queries = new ArrayList<Future<Cursor>>(sites.size());
+        for (final String site : sites) {
+            final String[] columns = projection;
+            final String where = selection;
+            final String[] whereArgs = selectionArgs;
+            queries.add(mSiteQueryExecutor.submit(new Callable<Cursor>() {
+                @Override
+                public Cursor call() {
+                    Cursor cursor = queryPets(getDatabase(site), columns, where, whereArgs, orderBy, null);
 
-        // If insertion failed, log an error and return null
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+                    // Counting reads the rows here, in parallel with the other sites
+                    cursor.getCount();
+                    return cursor;
+                }
+            }));
         }
 
-        // Notify listeners that there's been a data change for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Wait for every query, so none is left open when one fails
+        Cursor[] cursors = new Cursor[sites.size()];
+        RuntimeException failure = null;
+        for (int i = 0; i < cursors.length; i++) {
+            try {
+                cursors[i] = getSiteCursor(queries.get(i));
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            for (Cursor cursor : cursors) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            throw failure;
+        }
 
-        // Return the new URI with the ID of the new row inserted at the end
-        return ContentUris.withAppendedId(uri, id);
+        return new PetMergeCursor(cursors, sites.toArray(new String[sites.size()]), sortKey, descending);
     }
 
     /**
-     * Update the data at the given selection and selection arguments, with the new ContentValues.
+     * Return the cursor of a site's query once it is done, throwing what the query threw.
      */
-    @Override
-    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
-
-        // Find what kind of uri we passed int
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
-
-            case PET_ID:
-                // Extract out the ID from the URI so we know which row to update
-                selection = PetEntry.COLUMN_ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri))};
-
-                // Update pet at this uri
-                return updatePet(uri, contentValues, selection, selectionArgs);
-
-            default:
-                throw new IllegalArgumentException("Update is not suoorted for " + uri);
+    private static Cursor getSiteCursor(Future<Cursor> query) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return query.get();
+                } catch (InterruptedException e) {
+                    // Keep waiting, the query's cursor must not be left open
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // The query can only throw unchecked exceptions
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw (Error) cause;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
     /**
-     * Updates pets as specified in the selection and selection arguments.
-     * Return the number of rows successfully updated.
+     * Query one page of pets using keyset pagination. Rows are ordered by the sort key and then
+     * _id, and a page starts right after the (sort key, _id) of the last row of the previous page,
+     * so SQLite seeks straight to it instead of skipping over an offset.
      */
-    private int updatePet(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs) {
 
-        // Check that the name is not null
-        if (contentValues.containsKey(PetEntry.COLUMN_PET_NAME)) {
-            String name = contentValues.getAsString(PetEntry.COLUMN_PET_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Pet requires a name");
-            }
+        // Check that the page size is a positive number
+        int pageSize;
+        try {
+            pageSize = Integer.parseInt(uri.getQueryParameter(PetsContract.QUERY_PARAM_PAGE_SIZE));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page size for " + uri);
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size for " + uri);
         }
 
-        // Check that the gender is 1, 2, or 0
-        if (contentValues.containsKey(PetEntry.COLUMN_PET_GENDER)) {
-            Integer gender = contentValues.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-            if (gender == null || !PetEntry.isValidGender(gender)) {
-                throw new IllegalArgumentException("Pet requires valid gender");
-            }
+        // Check that the sort key is a column we can seek on
+        String sortKey = uri.getQueryParameter(PetsContract.QUERY_PARAM_SORT_KEY);
+        if (sortKey == null) {
+            sortKey = PetEntry.COLUMN_ID;
+        }
+        if (!PetEntry.isValidSortKey(sortKey)) {
+            throw new IllegalArgumentException("Cannot sort pages by " + sortKey);
         }
 
-        // Check that the weight is valid
-        if (contentValues.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
-            Integer weight = contentValues.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-            if (weight != null && weight <= 0) {
-                throw new IllegalArgumentException("Pet requires a valid weight");
+        // Where the previous page ended, if there was one
+        String afterKey = uri.getQueryParameter(PetsContract.QUERY_PARAM_AFTER_KEY);
+        String afterId = uri.getQueryParameter(PetsContract.QUERY_PARAM_AFTER_ID);
+
+        // Names and breeds compare as text for the current locale. The localized indexes keep
+        // them in that order, so both the sort and the seek below read an index
+        String key = PetEntry.COLUMN_PET_NAME.equals(sortKey) || PetEntry.COLUMN_PET_BREED.equals(sortKey)
+                ? sortKey + " COLLATE LOCALIZED"
+                : sortKey;
+
+        String seekSelection = null;
+        String[] seekArgs = null;
+        if (afterId != null) {
+            if (PetEntry.COLUMN_ID.equals(sortKey)) {
+                // ( SELECT ... FROM pets WHERE _id > 120 ORDER BY _id )
+                seekSelection = PetEntry.COLUMN_ID + " > ?";
+                seekArgs = new String[] { afterId };
+            } else if (afterKey == null && PetEntry.COLUMN_PET_BREED.equals(sortKey)) {
+                // Pets without a breed sort first, by _id, then come all the others
+                // ( SELECT ... FROM pets WHERE (breed IS NULL AND _id > 120) OR breed IS NOT NULL ORDER BY breed, _id )
+                seekSelection = "(" + sortKey + " IS NULL AND " + PetEntry.COLUMN_ID + " > ?) OR "
+                        + sortKey + " IS NOT NULL";
+                seekArgs = new String[] { afterId };
+            } else {
+                if (afterKey == null) {
+                    throw new IllegalArgumentException("Missing " + PetsContract.QUERY_PARAM_AFTER_KEY
+                            + " for " + uri);
+                }
+                // Written as a range on the sort key, so SQLite starts reading the index at the last row
+                // ( SELECT ... FROM pets WHERE name >= "Toto" AND (name > "Toto" OR _id > 120) ORDER BY name, _id )
+                seekSelection = key + " >= ? AND (" + key + " > ? OR " + PetEntry.COLUMN_ID + " > ?)";
+                seekArgs = new String[] { afterKey, afterKey, afterId };
             }
         }
 
-        // If there are no values to update, then don't try to update the database
-        if (contentValues.size() == 0) {
-            return 0;
+        // Combine the caller's selection with where the page starts
+        if (seekSelection != null) {
+            if (selection == null) {
+                selection = seekSelection;
+                selectionArgs = seekArgs;
+            } else {
+                selection = "(" + selection + ") AND (" + seekSelection + ")";
+                selectionArgs = concat(selectionArgs, seekArgs);
+            }
         }
 
-        // Access database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String orderBy = PetEntry.COLUMN_ID.equals(sortKey)
+                ? PetEntry.COLUMN_ID
+                : key + ", " + PetEntry.COLUMN_ID;
 
+        return queryPets(database, projection, selection, selectionArgs, orderBy, String.valueOf(pageSize));
+    }
 
-        // Update selected pets with the given ContentValues. Return the number of rows affected
-        int rowsUpdated =  database.update(PetEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+    /**
+     * Return the latest change of each pet changed since the sequence in the URI, ordered by
+     * sequence unless another order is given. Costs the same whatever the number of pets.
+     */
+    private static Cursor queryChanges(SQLiteDatabase database, Uri uri, String[] projection,
+                                       String selection, String[] selectionArgs, String sortOrder) {
+        long since = 0;
+        String sinceParameter = uri.getQueryParameter(PetsContract.QUERY_PARAM_SINCE);
+        if (sinceParameter != null) {
+            try {
+                since = Long.parseLong(sinceParameter);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid change sequence " + sinceParameter);
+            }
+        }
 
-        // If 1 or more rows were updated, notify listeners that there has been a change
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        // The query takes the sequence three times, ahead of any selection arguments
+        String sinceArgument = String.valueOf(since);
+        int extraArgs = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[3 + extraArgs];
+        args[0] = sinceArgument;
+        args[1] = sinceArgument;
+        args[2] = sinceArgument;
+        if (extraArgs > 0) {
+            System.arraycopy(selectionArgs, 0, args, 3, extraArgs);
         }
 
-        // Return the number of rows updated
-        return rowsUpdated;
+        return database.query("(" + PetSchema.SQL_QUERY_CHANGES + ")", projection, selection, args, null, null,
+                sortOrder == null ? PetsContract.ChangesEntry.COLUMN_SEQUENCE : sortOrder);
     }
 
     /**
-     * Delete the data at the given selection and selection arguments.
-     * Return number of rows deleted.
+     * Find pets whose name or breed contain words starting with each word of the search text.
+     * Pets matching on their name rank before pets matching only on their breed, then shorter
+     * names first since they are closer to what was typed.
      */
-    @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
+    private Cursor searchPets(SQLiteDatabase database, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
 
-        // Track the number of rows deleted
-        int rowsDeleted = 0;
+        // Turn "tot ter" into "tot* ter*", dropping anything FTS would read as an operator
+        StringBuilder match = new StringBuilder();
+        StringBuilder nameMatch = new StringBuilder();
+        String text = uri.getQueryParameter(PetsContract.QUERY_PARAM_SEARCH);
+        if (text != null) {
+            for (String word : text.split("\\s+")) {
+                StringBuilder term = new StringBuilder();
+                for (int i = 0; i < word.length(); i++) {
+                    char c = word.charAt(i);
+                    if (Character.isLetterOrDigit(c)) {
+                        term.append(c);
+                    }
+                }
+                if (term.length() == 0) {
+                    continue;
+                }
+                match.append(term).append("* ");
+                nameMatch.append(PetEntry.COLUMN_PET_NAME).append(':').append(term).append("* ");
+            }
+        }
 
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        // Nothing to search for
+        if (match.length() == 0) {
+            return new MatrixCursor(projection != null ? projection : new String[] { PetEntry.COLUMN_ID });
+        }
 
-        // Find what kind of uri we passed int
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+        // ( SELECT ... FROM pets WHERE _id IN (SELECT docid FROM pets_search WHERE pets_search MATCH "tot*") )
+        String searchSelection = PetEntry.COLUMN_ID + " IN (SELECT docid FROM " + PetSchema.TABLE_SEARCH +
+                " WHERE " + PetSchema.TABLE_SEARCH + " MATCH ?)";
+        String[] searchArgs = { match.toString().trim() };
+        if (selection == null) {
+            selection = searchSelection;
+            selectionArgs = searchArgs;
+        } else {
+            selection = "(" + selection + ") AND " + searchSelection;
+            selectionArgs = concat(selectionArgs, searchArgs);
+        }
 
-            case PET_ID:
-                // Delete a single row given by the ID in the URI
-                selection = PetEntry.COLUMN_ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+        // Rank by relevance unless the caller asked for another order. The name match is a
+        // constant subquery, so SQLite only runs it once
+        if (sortOrder == null) {
+            sortOrder = PetEntry.COLUMN_ID + " IN (SELECT docid FROM " + PetSchema.TABLE_SEARCH +
+                    " WHERE " + PetSchema.TABLE_SEARCH + " MATCH " +
+                    DatabaseUtils.sqlEscapeString(nameMatch.toString().trim()) + ") DESC, " +
+                    "length(" + PetEntry.COLUMN_PET_NAME + "), " + PetEntry.COLUMN_PET_NAME;
+        }
 
-            default:
-                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+        // Search as you type usually only needs the first few results
+        String limit = uri.getQueryParameter(PetsContract.QUERY_PARAM_PAGE_SIZE);
+        if (limit != null) {
+            try {
+                limit = String.valueOf(Integer.parseInt(limit));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page size for " + uri);
+            }
         }
 
-        // If 1 or more rows were delected, notify listeners that there has been a change
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        return queryPets(database, projection, selection, selectionArgs, sortOrder, limit);
+    }
+
+    /**
+     * Return a single pet from the row cache, reading and caching it on a miss.
+     */
+    private Cursor queryCachedPet(SQLiteDatabase database, long id, String[] projection) {
+        Cursor cursor = mRowCache.get(id, projection);
+        if (cursor == null) {
+            // Remember the generation first, so a write racing with this read can't be undone
+            long generation = mRowCache.getGeneration();
+            Cursor row = queryPets(database, PetRowCache.COLUMNS, PetEntry.COLUMN_ID + "=?",
+                    new String[] { String.valueOf(id) }, null, null);
+            try {
+                cursor = row.moveToFirst()
+                        ? mRowCache.put(generation, row, projection)
+                        : new MatrixCursor(projection != null ? projection : PetRowCache.COLUMNS, 0);
+            } finally {
+                row.close();
+            }
         }
 
-        // Return the number of rows deleted
-        return rowsDeleted;
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, mRowCache.toString());
+        }
+        return cursor;
     }
 
     /**
-     * Returns the MIME type (content type) of data for the content URI.
+     * Query the pets table. In debug mode, the query plan is checked first and any full table
+     * scan is logged. Turn debug mode on with: adb shell setprop log.tag.PetProvider DEBUG
      */
-    @Override
-    public String getType(Uri uri) {
+    private Cursor queryPets(SQLiteDatabase database, String[] projection, String selection,
+                             String[] selectionArgs, String orderBy, String limit) {
+
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            String sql = SQLiteQueryBuilder.buildQueryString(false, PetEntry.TABLE_NAME, projection,
+                    selection, null, null, orderBy, limit);
+            logQueryPlan(database, sql, selectionArgs);
+        }
+
+        return database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs, null, null,
+                orderBy, limit);
+    }
+
+    /**
+     * Run EXPLAIN QUERY PLAN on the given query and log every step that scans a whole table.
+     */
+    private static void logQueryPlan(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        Cursor plan = database.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            // The last column of each plan row describes the step, e.g. "SCAN TABLE pets"
+            int detailColumnIndex = plan.getColumnCount() - 1;
+            while (plan.moveToNext()) {
+                String detail = plan.getString(detailColumnIndex);
+                if (detail.startsWith("SCAN") && !detail.contains("INDEX")) {
+                    Log.w(LOG_TAG, "Full table scan (" + detail + ") for query: " + sql);
+                } else {
+                    Log.d(LOG_TAG, "Query plan (" + detail + ") for query: " + sql);
+                }
+            }
+        } finally {
+            plan.close();
+        }
+    }
+
+    /**
+     * Join two arrays of selection arguments, either of which may be null.
+     */
+    private static String[] concat(String[] first, String[] second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        String[] joined = new String[first.length + second.length];
+        System.arraycopy(first, 0, joined, 0, first.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+
+    /**
+     * Insert new data into the provider with the given ContentValues.
+     */
+    @Override
+    public Uri insert(Uri uri, ContentValues contentValues) {
+
+        // Find what kind of uri was passed in
+        final int match = sUriMatcher.match(uri);
+
+        long startTime = System.nanoTime();
+        Uri petUri = null;
+        try {
+            switch (match) {
+                case PETS:
+                    petUri = insertPet(uri, contentValues);
+                    return petUri;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            mMetrics.record(MetricsEntry.OPERATION_INSERT, matchName(match), startTime, petUri == null,
+                    petUri == null ? 0 : 1, uri, null);
+        }
+    }
+
+    private Uri insertPet(Uri uri, ContentValues contentValues) {
+
+        // Make sure the pet is valid before touching the database
+        validatePet(contentValues);
+
+        // Get writable database of the pet's site
+        SQLiteDatabase database = getDatabase(getSite(uri));
+
+        // Insert a new pet into the pets database table with the given ContentValues
+        long id = database.insert(PetsContract.PetEntry.TABLE_NAME, null, contentValues);
+
+        // If insertion failed, log an error and return null
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Not cached here: the first query of the new pet caches it as stored, with defaults
+        // filled in, and a write racing with this insert can't be undone by a stale put
+
+        // Notify listeners that there's a new pet at its own URI
+        Uri petUri = ContentUris.withAppendedId(uri, id);
+        notifyChange(petUri);
+
+        // Return the new URI with the ID of the new row inserted at the end
+        return petUri;
+    }
+
+    /**
+     * Check that the given values describe a valid new pet, throw otherwise.
+     */
+    private void validatePet(ContentValues contentValues) {
+
+        // Check that the name is not null
+        String name = contentValues.getAsString(PetEntry.COLUMN_PET_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Pet requires a name");
+        }
+
+        // Check that the gender is 1, 2, or 0
+        Integer gender = contentValues.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+        if (gender == null || !PetEntry.isValidGender(gender)) {
+            throw new IllegalArgumentException("Pet requires valid gender");
+        }
+
+        // Check that the weight is valid
+        Integer weight = contentValues.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        if (weight != null && weight < 0) {
+            throw new IllegalArgumentException("Pet requires a valid weight");
+        }
+
+        // Photos are only set by writing to the photo URI
+        if (contentValues.containsKey(PetEntry.COLUMN_PET_PHOTO)) {
+            throw new IllegalArgumentException("Pet photos are written to their photo URI");
+        }
+    }
+
+    /**
+     * Insert many pets at once. The whole batch is validated up front, then written in a single
+     * transaction through one compiled statement, with a single change notification at the end.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+
+        long startTime = System.nanoTime();
+        boolean failed = true;
+        int rowsInserted = 0;
+        try {
+            rowsInserted = bulkInsert(match, uri, values);
+            failed = false;
+            return rowsInserted;
+        } finally {
+            mMetrics.record(MetricsEntry.OPERATION_BULK_INSERT, matchName(match), startTime, failed,
+                    rowsInserted, uri, null);
+        }
+    }
+
+    private int bulkInsert(int match, Uri uri, ContentValues[] values) {
+
+        // Only the whole table supports inserts
+        if (match != PETS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        // Reject the whole batch before writing anything if one pet is invalid
+        for (ContentValues contentValues : values) {
+            validatePet(contentValues);
+        }
+
+        // Nothing to insert
+        if (values.length == 0) {
+            return 0;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        int rowsInserted = 0;
+
+        // Access database of the pets' site
+        SQLiteDatabase database = getDatabase(getSite(uri));
+
+        // Compile the insert once and rebind it for every row
+        SQLiteStatement statement = database.compileStatement(PetSchema.SQL_INSERT_PET);
+
+        database.beginTransactionNonExclusive();
+        try {
+            for (ContentValues contentValues : values) {
+                bindPet(statement, contentValues);
+                if (statement.executeInsert() != -1) {
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+        }
+
+        // Notify listeners once for the whole batch
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+        }
+
+        // Report throughput of the batch
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+            Log.d(LOG_TAG, "Bulk inserted " + rowsInserted + " pets in " + elapsed + " ms ("
+                    + (rowsInserted * 1000L / elapsed) + " rows/sec)");
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Bind a pet's values to the compiled insert statement, in {@link PetSchema#SQL_INSERT_PET} order.
+     */
+    private static void bindPet(SQLiteStatement statement, ContentValues contentValues) {
+        statement.clearBindings();
+
+        // A null id lets SQLite pick the next row id
+        Long id = contentValues.getAsLong(PetEntry.COLUMN_ID);
+        if (id == null) {
+            statement.bindNull(1);
+        } else {
+            statement.bindLong(1, id);
+        }
+
+        statement.bindString(2, contentValues.getAsString(PetEntry.COLUMN_PET_NAME));
+
+        String breed = contentValues.getAsString(PetEntry.COLUMN_PET_BREED);
+        if (breed == null) {
+            statement.bindNull(3);
+        } else {
+            statement.bindString(3, breed);
+        }
+
+        statement.bindLong(4, contentValues.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+
+        // Missing weight falls back to the column default of 0
+        Integer weight = contentValues.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        statement.bindLong(5, weight == null ? 0 : weight);
+    }
+
+    /**
+     * Update the data at the given selection and selection arguments, with the new ContentValues.
+     */
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+
+        // Find what kind of uri we passed int
+        final int match = sUriMatcher.match(uri);
+
+        long startTime = System.nanoTime();
+        boolean failed = true;
+        int rowsUpdated = 0;
+        try {
+            rowsUpdated = update(match, uri, contentValues, selection, selectionArgs);
+            failed = false;
+            return rowsUpdated;
+        } finally {
+            mMetrics.record(MetricsEntry.OPERATION_UPDATE, matchName(match), startTime, failed,
+                    rowsUpdated, uri, selection);
+        }
+    }
+
+    private int update(int match, Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        switch (match) {
+            case PETS:
+                return updatePet(uri, contentValues, selection, selectionArgs);
 
-        // Find what kind of uri we passed int
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return PetEntry.CONTENT_LIST_TYPE;
+            case PET_ID:
+                // Update pet at this uri. The ID is taken from the URI in updatePet
+                return updatePet(uri, contentValues, null, null);
+
+            default:
+                throw new IllegalArgumentException("Update is not suoorted for " + uri);
+        }
+    }
+
+    /**
+     * Updates pets as specified in the selection and selection arguments.
+     * Return the number of rows successfully updated.
+     */
+    private int updatePet(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+
+        // Check that the name is not null
+        if (contentValues.containsKey(PetEntry.COLUMN_PET_NAME)) {
+            String name = contentValues.getAsString(PetEntry.COLUMN_PET_NAME);
+            if (name == null) {
+                throw new IllegalArgumentException("Pet requires a name");
+            }
+        }
+
+        // Check that the gender is 1, 2, or 0
+        if (contentValues.containsKey(PetEntry.COLUMN_PET_GENDER)) {
+            Integer gender = contentValues.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+            if (gender == null || !PetEntry.isValidGender(gender)) {
+                throw new IllegalArgumentException("Pet requires valid gender");
+            }
+        }
+
+        // Check that the weight is valid
+        if (contentValues.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
+            Integer weight = contentValues.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+            if (weight != null && weight <= 0) {
+                throw new IllegalArgumentException("Pet requires a valid weight");
+            }
+        }
+
+        // Photos are only set by writing to the photo URI
+        if (contentValues.containsKey(PetEntry.COLUMN_PET_PHOTO)) {
+            throw new IllegalArgumentException("Pet photos are written to their photo URI");
+        }
+
+        // If there are no values to update, then don't try to update the database
+        if (contentValues.size() == 0) {
+            return 0;
+        }
+
+        // Access database of the site in the URI
+        SQLiteDatabase database = getDatabase(getSite(uri));
+
+        // Rows of the whole table that are about to change, so each one can be notified
+        long[] changedIds = null;
+        int rowsUpdated;
+
+        if (sUriMatcher.match(uri) == PET_ID) {
+            long id = ContentUris.parseId(uri);
+            if (PetStatementCache.canUpdate(contentValues) && isMainSite(uri)) {
+                // Pet columns of a single pet go through a compiled statement, with the ID bound as a long
+                rowsUpdated = getStatements().updateById(id, contentValues);
+            } else {
+                rowsUpdated = database.update(PetEntry.TABLE_NAME, contentValues, PetEntry.COLUMN_ID + "=?",
+                        new String[] { String.valueOf(id) });
+            }
+        } else {
+            database.beginTransactionNonExclusive();
+            try {
+                changedIds = queryChangedIds(database, selection, selectionArgs);
+
+                // Update selected pets with the given ContentValues. Return the number of rows affected
+                rowsUpdated = database.update(PetEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+
+        // If 1 or more rows were updated, notify listeners that there has been a change
+        if (rowsUpdated != 0) {
+            invalidateCachedRows(uri, changedIds);
+            notifyRowsChanged(uri, changedIds);
+        }
+
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete the data at the given selection and selection arguments.
+     * Return number of rows deleted.
+     */
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+
+        // Find what kind of uri we passed int
+        final int match = sUriMatcher.match(uri);
+
+        // Deleting the metrics starts them over, and is not measured
+        if (match == METRICS) {
+            return mMetrics.reset();
+        }
+
+        long startTime = System.nanoTime();
+        boolean failed = true;
+        int rowsDeleted = 0;
+        try {
+            rowsDeleted = delete(match, uri, selection, selectionArgs);
+            failed = false;
+            return rowsDeleted;
+        } finally {
+            mMetrics.record(MetricsEntry.OPERATION_DELETE, matchName(match), startTime, failed,
+                    rowsDeleted, uri, selection);
+        }
+    }
+
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
+
+        // Track the number of rows deleted
+        int rowsDeleted = 0;
+
+        // Rows of the whole table that are about to be deleted, so each one can be notified
+        long[] changedIds = null;
+
+        // Get writable database of the site in the URI
+        SQLiteDatabase database = getDatabase(getSite(uri));
+
+        switch (match) {
+            case PETS:
+                // Without a selection every pet goes, which doesn't need to touch any of them.
+                // Other sites are small enough to delete their pets one by one
+                if (selection == null && isMainSite(uri)) {
+                    rowsDeleted = truncatePets(database);
+                    break;
+                }
+                if (selection == null) {
+                    rowsDeleted = database.delete(PetEntry.TABLE_NAME, "1", null);
+                    break;
+                }
+
+                // Delete all rows that match the selection and selection args
+                database.beginTransactionNonExclusive();
+                try {
+                    changedIds = queryChangedIds(database, selection, selectionArgs);
+                    rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                break;
+
+            case PET_ID:
+                // Delete a single row given by the ID in the URI, through a compiled statement
+                // at the main site
+                if (isMainSite(uri)) {
+                    rowsDeleted = getStatements().deleteById(ContentUris.parseId(uri));
+                } else {
+                    rowsDeleted = database.delete(PetEntry.TABLE_NAME, PetEntry.COLUMN_ID + "=?",
+                            new String[] { String.valueOf(ContentUris.parseId(uri)) });
+                }
+                break;
+
+            default:
+                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+        }
+
+        // If 1 or more rows were delected, notify listeners that there has been a change
+        if (rowsDeleted != 0) {
+            invalidateCachedRows(uri, changedIds);
+            notifyRowsChanged(uri, changedIds);
+
+            // Delete the files of the photos the deleted pets put in the trash
+            if (isMainSite(uri)) {
+                schedulePurge();
+            }
+        }
+
+        // Return the number of rows deleted
+        return rowsDeleted;
+    }
+
+    /**
+     * Apply a batch of operations in a single transaction. Change notifications are merged to one
+     * per URI and only sent once the batch has been committed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long startTime = System.nanoTime();
+        boolean failed = true;
+        try {
+            ContentProviderResult[] results = applyBatchInTransaction(operations);
+            failed = false;
+            return results;
+        } finally {
+            // A batch can mix URIs, so it is reported under no match
+            mMetrics.record(MetricsEntry.OPERATION_APPLY_BATCH, matchName(UriMatcher.NO_MATCH), startTime,
+                    failed, operations.size(), PetsContract.BASE_CONTENT_URI, null);
+        }
+    }
+
+    private ContentProviderResult[] applyBatchInTransaction(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        // The batch is one transaction, so every operation must be at the same site
+        String site = PetsContract.SITE_MAIN;
+        for (int i = 0; i < operations.size(); i++) {
+            String operationSite = getSite(operations.get(i).getUri());
+            if (i == 0) {
+                site = operationSite;
+            } else if (!site.equals(operationSite)) {
+                throw new IllegalArgumentException("A batch cannot write to more than one site");
+            }
+        }
+
+        // Get writable database
+        SQLiteDatabase database = getDatabase(site);
+
+        // Collect notifications from insert, update and delete instead of sending them right away
+        Set<Uri> pending = new LinkedHashSet<Uri>();
+        mPendingNotifications.set(pending);
+
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        boolean committed = false;
+        boolean yielded = false;
+
+        database.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+
+                // At yield points, commit what we have so far if another thread is waiting
+                if (i > 0 && operation.isYieldAllowed()
+                        && database.yieldIfContendedSafely(YIELD_SLEEP_MS)) {
+                    yielded = true;
+                }
+
+                results[i] = operation.apply(this, results, i);
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            mPendingNotifications.remove();
+
+            // Rows cached by readers while the batch was running may be out of date now
+            mRowCache.invalidateAll();
+
+            // Part of a failed batch may already be committed at a yield point.
+            // Its notifications go out right away, along with any held back from other writes
+            if (committed || yielded) {
+                if (!pending.isEmpty() && PetsContract.SITE_MAIN.equals(site)) {
+                    scheduleCatalogSnapshot();
+                }
+                mNotifications.notifyNow(pending);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Find the _id of every pet matching the selection, or null when there are more than
+     * {@link #MAX_ROW_NOTIFICATIONS} of them. Must be called in the same transaction as the write.
+     */
+    private static long[] queryChangedIds(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        Cursor cursor = database.query(PetEntry.TABLE_NAME, new String[] { PetEntry.COLUMN_ID },
+                selection, selectionArgs, null, null, null, String.valueOf(MAX_ROW_NOTIFICATIONS + 1));
+        try {
+            if (cursor.getCount() > MAX_ROW_NOTIFICATIONS) {
+                return null;
+            }
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Drop updated or deleted pets from the row cache, or every pet when the rows are not known.
+     */
+    private void invalidateCachedRows(Uri uri, long[] changedIds) {
+        if (!isMainSite(uri)) {
+            // Only pets of the main site are cached
+            return;
+        }
+        if (sUriMatcher.match(uri) == PET_ID) {
+            mRowCache.invalidate(ContentUris.parseId(uri));
+        } else if (changedIds == null) {
+            mRowCache.invalidateAll();
+        } else {
+            for (long id : changedIds) {
+                mRowCache.invalidate(id);
+            }
+        }
+    }
+
+    /**
+     * Notify listeners of each changed row at its own URI. Without a list of rows, the URI that
+     * was written to is notified instead, which for the whole table reloads every list of pets.
+     */
+    private void notifyRowsChanged(Uri uri, long[] changedIds) {
+        if (changedIds == null) {
+            notifyChange(uri);
+            return;
+        }
+        Uri rowsUri = isMainSite(uri) ? PetEntry.CONTENT_URI
+                : PetsContract.buildSiteUri(PetEntry.CONTENT_URI, getSite(uri));
+        for (long id : changedIds) {
+            notifyChange(ContentUris.withAppendedId(rowsUri, id));
+        }
+    }
+
+    /**
+     * Notify listeners of a change at the given URI, or hold it back until the running batch ends.
+     * Outside a batch, changes soon after another are merged by the notification scheduler.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
+            if (changesCatalog(uri)) {
+                scheduleCatalogSnapshot();
+            }
+            mNotifications.notifyChange(uri);
+        }
+    }
+
+    /**
+     * Whether a change at the URI may change the main site's pets, the only ones in the cold
+     * start snapshot. Changes to other sites leave the snapshot as it is.
+     */
+    private static boolean changesCatalog(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return !segments.isEmpty() && PetsContract.PATH_PETS.equals(segments.get(0)) && isMainSite(uri);
+    }
+
+    /**
+     * Rewrite the cold start snapshot of the catalog's first pets in the background, unless a
+     * rewrite is already queued. Called after every committed change to the main site.
+     */
+    private void scheduleCatalogSnapshot() {
+        if (!mSnapshotPending.compareAndSet(false, true)) {
+            return;
+        }
+        mSnapshotExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Cleared before reading, so a commit from now on queues another write
+                mSnapshotPending.set(false);
+
+                // Same rows as the catalog's first page
+                Cursor cursor = queryPets(getDatabase(), CatalogSnapshotFile.COLUMNS, null, null,
+                        PetEntry.COLUMN_ID, String.valueOf(CatalogSnapshotFile.MAX_PETS));
+                try {
+                    CatalogSnapshotFile.write(CatalogSnapshotFile.getFile(getContext()), cursor);
+                    mSnapshotWritten = true;
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Cannot write catalog snapshot", e);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Delete every pet at the same cost whatever their number: the tables holding them are swapped
+     * for empty ones in one transaction, so readers see no pets as soon as it commits. The old
+     * rows are purged in the background. Return the number of pets deleted.
+     */
+    private int truncatePets(SQLiteDatabase database) {
+        int rowsDeleted;
+        database.beginTransactionNonExclusive();
+        try {
+            rowsDeleted = (int) DatabaseUtils.longForQuery(database, PetSchema.SQL_COUNT_PETS, null);
+            if (rowsDeleted > 0) {
+                // Number the purge tables so that truncating again before a purge ends can't clash
+                long purgeNumber = System.currentTimeMillis();
+                while (DatabaseUtils.queryNumEntries(database, "sqlite_master", "name=?",
+                        new String[] { PetSchema.PURGE_PETS_PREFIX + purgeNumber }) > 0) {
+                    purgeNumber++;
+                }
+                for (String statement : PetSchema.sqlTruncatePets(purgeNumber)) {
+                    database.execSQL(statement);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // In a batch the purge finds the tables once the batch commits, as it waits for the
+        // database to write
+        if (rowsDeleted > 0) {
+            schedulePurge();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Queue a purge of the truncated tables and of the photo trash, unless one is already queued.
+     */
+    private void schedulePurge() {
+        if (!mPurgePending.compareAndSet(false, true)) {
+            return;
+        }
+        mPurgeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Cleared before looking for tables, so a truncation from now on queues another purge
+                mPurgePending.set(false);
+                try {
+                    purgeTruncatedTables(getDatabase());
+                    emptyPhotoTrash(getDatabase());
+                } catch (SQLException e) {
+                    // What is left is purged at the next start
+                    Log.w(LOG_TAG, "Cannot purge truncated pets", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Delete the rows of every truncated table, one chunk per transaction so other writes are
+     * never held up for long, dropping each table once it is empty.
+     */
+    private static void purgeTruncatedTables(SQLiteDatabase database) {
+        boolean purging = true;
+        while (purging) {
+            database.beginTransactionNonExclusive();
+            try {
+                purging = purgeChunk(database);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+    }
+
+    // Purge a chunk of the first truncated table. Return false when there is none left
+    private static boolean purgeChunk(SQLiteDatabase database) {
+        String table;
+        Cursor cursor = database.rawQuery(PetSchema.SQL_QUERY_PURGE_TABLES, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            table = cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+
+        // The statements end with the delete, whose count says whether any rows were left
+        int rowsPurged = 0;
+        for (String sql : PetSchema.sqlPurgeChunk(table, PURGE_CHUNK_SIZE)) {
+            SQLiteStatement statement = database.compileStatement(sql);
+            try {
+                rowsPurged = statement.executeUpdateDelete();
+            } finally {
+                statement.close();
+            }
+        }
+
+        if (rowsPurged == 0) {
+            database.execSQL("DROP TABLE " + table);
+
+            // Truncated before the new table got its own indexes, the pets table has none until
+            // the table that took them is dropped
+            if (DatabaseUtils.longForQuery(database, PetSchema.SQL_COUNT_PETS_INDEXES, null) == 0) {
+                for (String index : PetSchema.sqlCreatePetsIndexes("")) {
+                    database.execSQL(index);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Delete the files of the photos in the trash, then their rows, one chunk per transaction.
+     * Reading the trash waits for any running write, so photos trashed by a batch are found once
+     * it commits.
+     */
+    private void emptyPhotoTrash(SQLiteDatabase database) {
+        boolean emptying = true;
+        while (emptying) {
+            database.beginTransactionNonExclusive();
+            try {
+                emptying = emptyPhotoTrashChunk(database);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+    }
+
+    // Delete a chunk of trashed photos. Return false when the trash is empty
+    private boolean emptyPhotoTrashChunk(SQLiteDatabase database) {
+        long lastRowId;
+        Cursor cursor = database.rawQuery(PetSchema.SQL_QUERY_PHOTO_TRASH,
+                new String[] { String.valueOf(PHOTO_TRASH_CHUNK_SIZE) });
+        try {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            do {
+                File file = getPhotoFile(cursor.getString(1));
+                if (!file.delete() && file.exists()) {
+                    Log.w(LOG_TAG, "Cannot delete photo " + file);
+                }
+                lastRowId = cursor.getLong(0);
+            } while (cursor.moveToNext());
+        } finally {
+            cursor.close();
+        }
+        database.delete(PetSchema.TABLE_PHOTO_TRASH, "rowid <= ?", new String[] { String.valueOf(lastRowId) });
+        return true;
+    }
+
+    private File getPhotoDirectory() {
+        return new File(getContext().getFilesDir(), PHOTO_DIRECTORY);
+    }
+
+    private File getPhotoFile(String photo) {
+        return new File(getPhotoDirectory(), photo);
+    }
+
+    /**
+     * Open the export URI for reading or the import URI for writing. Either way the file is a
+     * pipe: an export is written as it is read, and an import is read and committed in batches
+     * as it is written, so neither holds more than one batch of pets in memory.
+     *
+     * A pet's photo URI opens the photo file itself for reading, and a pipe for writing a new
+     * photo, which replaces the old one once it is complete.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        final int match = sUriMatcher.match(uri);
+
+        // Exports, imports and photos only cover the main site
+        if (uri.getQueryParameter(PetsContract.QUERY_PARAM_SITE) != null && !isMainSite(uri)) {
+            throw new FileNotFoundException("No file at " + uri);
+        }
+        switch (match) {
+            case PETS_EXPORT:
+                if (!"r".equals(mode)) {
+                    throw new FileNotFoundException("Cannot open " + uri + " in mode " + mode);
+                }
+                return openPipeHelper(uri, getType(uri), null, getFormat(uri), new PipeDataWriter<String>() {
+                    @Override
+                    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                                Bundle opts, String format) {
+                        exportPets(output, uri, format);
+                    }
+                });
+
+            case PETS_IMPORT:
+                if (!mode.startsWith("w")) {
+                    throw new FileNotFoundException("Cannot open " + uri + " in mode " + mode);
+                }
+                return openImport(uri, getFormat(uri));
+
+            case PET_PHOTO:
+                if ("r".equals(mode)) {
+                    return openPhoto(uri);
+                }
+                if (!mode.startsWith("w")) {
+                    throw new FileNotFoundException("Cannot open " + uri + " in mode " + mode);
+                }
+                return openPhotoWriter(uri);
+
+            default:
+                throw new FileNotFoundException("No file at " + uri);
+        }
+    }
+
+    /**
+     * Open the photo file of the pet in the URI. The caller reads the file through its own
+     * descriptor, with no copy through the provider.
+     */
+    private ParcelFileDescriptor openPhoto(Uri uri) throws FileNotFoundException {
+        String photo = null;
+        Cursor cursor = getDatabase().query(PetEntry.TABLE_NAME, new String[] { PetEntry.COLUMN_PET_PHOTO },
+                PetEntry.COLUMN_ID + "=?", new String[] { uri.getPathSegments().get(1) }, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                photo = cursor.getString(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (photo == null) {
+            throw new FileNotFoundException("No photo at " + uri);
+        }
+        return ParcelFileDescriptor.open(getPhotoFile(photo), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Return a pipe to write a new photo for the pet in the URI. It is saved in the background.
+     *
+     * From KitKat the pipe is reliable: a writer that gives up half way closes it with an error,
+     * or dies, and the partial photo is dropped. Before KitKat the end of the pipe looks the same
+     * either way, so whatever was written is saved.
+     */
+    private ParcelFileDescriptor openPhotoWriter(final Uri uri) throws FileNotFoundException {
+        final long id = Long.parseLong(uri.getPathSegments().get(1));
+        final ParcelFileDescriptor[] pipe;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                pipe = ParcelFileDescriptor.createReliablePipe();
+            } else {
+                pipe = ParcelFileDescriptor.createPipe();
+            }
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot open " + uri + ": " + e.getMessage());
+        }
+
+        mPhotoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                savePhoto(pipe[0], uri, id);
+            }
+        });
+        return pipe[1];
+    }
+
+    /**
+     * Copy a photo from the pipe to a new file, then point the pet at it. Readers see the previous
+     * photo until the new one is complete, and the previous file goes to the photo trash. If the
+     * writer closed the pipe with an error, the new file is deleted and the pet keeps its photo.
+     */
+    private void savePhoto(ParcelFileDescriptor input, Uri uri, long id) {
+        File file = null;
+        boolean saved = false;
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(input);
+        try {
+            File directory = getPhotoDirectory();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+
+            // Every photo gets a new name, so a cached thumbnail is never one of another photo
+            file = File.createTempFile("pet" + id + "_", ".photo", directory);
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+
+                // Throws if the writer closed its end with an error or died before closing it
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    input.checkError();
+                }
+
+                // On disk before the database points to it
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_PHOTO, file.getName());
+            saved = getDatabase().update(PetEntry.TABLE_NAME, values, PetEntry.COLUMN_ID + "=?",
+                    new String[] { String.valueOf(id) }) > 0;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot save photo for " + uri, e);
+        } catch (SQLException e) {
+            Log.w(LOG_TAG, "Cannot save photo for " + uri, e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing left to do with the pipe
+            }
+
+            // Incomplete, or no pet to show it, e.g. it was deleted in the meantime
+            if (!saved && file != null && !file.delete()) {
+                Log.w(LOG_TAG, "Cannot delete unused photo " + file);
+            }
+        }
+
+        if (saved) {
+            mRowCache.invalidate(id);
+            notifyChange(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id));
+
+            // Delete the previous photo
+            schedulePurge();
+        }
+    }
+
+    /**
+     * Return the file format asked for by an export or import URI.
+     */
+    private static String getFormat(Uri uri) {
+        String format = uri.getQueryParameter(PetsContract.QUERY_PARAM_FORMAT);
+        if (format == null) {
+            return PetsContract.FORMAT_NDJSON;
+        }
+        if (!PetTransfer.isValidFormat(format)) {
+            throw new IllegalArgumentException("Unknown format " + format + " for " + uri);
+        }
+        return format;
+    }
+
+    /**
+     * Write every pet to the pipe, reading them a chunk at a time in _id order. Pets changed
+     * while the export runs appear as they were when their chunk was read.
+     */
+    private void exportPets(ParcelFileDescriptor output, Uri uri, String format) {
+        long startTime = System.nanoTime();
+        boolean failed = true;
+        int rowsExported = 0;
+
+        FileOutputStream out = new FileOutputStream(output.getFileDescriptor());
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), TRANSFER_BUFFER_SIZE);
+            PetTransfer.writeHeader(writer, format);
+
+            SQLiteDatabase database = getDatabase();
+            long afterId = Long.MIN_VALUE;
+            int chunkRows;
+            do {
+                Cursor chunk = queryPets(database, PetTransfer.COLUMNS, PetEntry.COLUMN_ID + " > ?",
+                        new String[] { String.valueOf(afterId) }, PetEntry.COLUMN_ID,
+                        String.valueOf(TRANSFER_CHUNK_SIZE));
+                try {
+                    chunkRows = chunk.getCount();
+                    while (chunk.moveToNext()) {
+                        PetTransfer.writePet(writer, chunk, format);
+                        afterId = chunk.getLong(0);
+                    }
+                } finally {
+                    chunk.close();
+                }
+                rowsExported += chunkRows;
+            } while (chunkRows == TRANSFER_CHUNK_SIZE);
+
+            writer.flush();
+            failed = false;
+        } catch (IOException e) {
+            // Usually the reader closed its end before the end of the file
+            Log.w(LOG_TAG, "Export to " + uri + " stopped after " + rowsExported + " pets", e);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Nothing left to do with the pipe
+            }
+            mMetrics.record(MetricsEntry.OPERATION_EXPORT, matchName(PETS_EXPORT), startTime, failed,
+                    rowsExported, uri, null);
+        }
+    }
+
+    /**
+     * Return the write end of a pipe whose read end is imported in the background.
+     */
+    private ParcelFileDescriptor openImport(final Uri uri, final String format) throws FileNotFoundException {
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot open " + uri + ": " + e.getMessage());
+        }
+
+        mImportExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                importPets(pipe[0], uri, format);
+            }
+        });
+        return pipe[1];
+    }
+
+    /**
+     * Read pets from the pipe until it is closed, inserting every {@link #TRANSFER_CHUNK_SIZE}
+     * of them in one transaction. A pet that can't be read or is invalid stops the import,
+     * keeping the batches committed before it.
+     */
+    private void importPets(ParcelFileDescriptor input, Uri uri, String format) {
+        long startTime = System.nanoTime();
+        boolean failed = true;
+        int rowsImported = 0;
+
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(input);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), TRANSFER_BUFFER_SIZE);
+            PetTransfer.PetReader petReader = new PetTransfer.PetReader(reader, format);
+
+            // One batch array, reused for every transaction
+            ContentValues[] batch = new ContentValues[TRANSFER_CHUNK_SIZE];
+            int batchSize = 0;
+            ContentValues values;
+            while ((values = petReader.next()) != null) {
+                batch[batchSize++] = values;
+                if (batchSize == batch.length) {
+                    rowsImported += bulkInsert(PetEntry.CONTENT_URI, batch);
+                    batchSize = 0;
+                }
+            }
+            if (batchSize > 0) {
+                rowsImported += bulkInsert(PetEntry.CONTENT_URI, Arrays.copyOf(batch, batchSize));
+            }
+            failed = false;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Import from " + uri + " stopped after " + rowsImported + " pets", e);
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Import from " + uri + " stopped after " + rowsImported + " pets", e);
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Import from " + uri + " stopped after " + rowsImported + " pets", e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing left to do with the pipe
+            }
+            mMetrics.record(MetricsEntry.OPERATION_IMPORT, matchName(PETS_IMPORT), startTime, failed,
+                    rowsImported, uri, null);
+        }
+    }
+
+    /**
+     * Handle {@link PetsContract#METHOD_SET_SLOW_QUERY_THRESHOLD} and
+     * {@link PetsContract#METHOD_SET_NOTIFICATION_WINDOW}, whose argument is the new value in
+     * milliseconds, and {@link PetsContract#METHOD_VACUUM_SITE}, whose argument is the site.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (PetsContract.METHOD_SET_SLOW_QUERY_THRESHOLD.equals(method)) {
+            try {
+                mMetrics.setSlowThresholdMs(Long.parseLong(arg));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid slow query threshold " + arg);
+            }
+            return null;
+        }
+        if (PetsContract.METHOD_SET_NOTIFICATION_WINDOW.equals(method)) {
+            try {
+                mNotifications.setWindowMs(Long.parseLong(arg));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid notification window " + arg);
+            }
+            return null;
+        }
+        if (PetsContract.METHOD_VACUUM_SITE.equals(method)) {
+            if (!PetsContract.isValidSite(arg)) {
+                throw new IllegalArgumentException("Invalid site " + arg);
+            }
+
+            // Rebuilds only that site's file, the other sites keep going
+            getDatabase(arg).execSQL("VACUUM");
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Returns the MIME type (content type) of data for the content URI.
+     */
+    @Override
+    public String getType(Uri uri) {
+
+        // Find what kind of uri we passed int
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PETS:
+                return PetEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
+            case PETS_SEARCH:
+                return PetEntry.CONTENT_LIST_TYPE;
+            case PETS_STATS:
+                return PetsContract.StatsEntry.CONTENT_LIST_TYPE;
+            case PETS_CHANGES:
+                return PetsContract.ChangesEntry.CONTENT_LIST_TYPE;
+            case PET_PHOTO:
+                return PetEntry.PHOTO_TYPE;
+            case PETS_EXPORT:
+            case PETS_IMPORT:
+                return PetsContract.FORMAT_CSV.equals(getFormat(uri)) ? PetEntry.CSV_TYPE : PetEntry.NDJSON_TYPE;
+            case METRICS:
+            case SLOW_QUERIES:
+                return MetricsEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
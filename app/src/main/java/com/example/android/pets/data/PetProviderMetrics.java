@@ -0,0 +1,303 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractWindowedCursor;
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.pets.data.PetsContract.MetricsEntry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency histograms and counters of every {@link PetProvider} call, by operation and URI match,
+ * with a log of the most recent slow calls. Read through {@link MetricsEntry}.
+ */
+class PetProviderMetrics {
+
+    // Calls taking at least this long by default are logged as slow
+    static final long DEFAULT_SLOW_THRESHOLD_MS = 50;
+
+    // Number of slow calls kept, oldest dropped first
+    private static final int SLOW_LOG_SIZE = 50;
+
+    // Stats per "operation match" key, sorted so the cursor lists them in a stable order
+    private final Map<String, Stats> mStats = new TreeMap<String, Stats>();
+
+    private final ArrayDeque<SlowCall> mSlowLog = new ArrayDeque<SlowCall>(SLOW_LOG_SIZE);
+
+    private volatile long mSlowThresholdMs = DEFAULT_SLOW_THRESHOLD_MS;
+
+    /**
+     * Change how long a call must take to be logged as slow.
+     */
+    void setSlowThresholdMs(long thresholdMs) {
+        if (thresholdMs < 0) {
+            throw new IllegalArgumentException("Invalid slow query threshold " + thresholdMs);
+        }
+        mSlowThresholdMs = thresholdMs;
+    }
+
+    /**
+     * Record one call that started at the given {@link System#nanoTime()}.
+     */
+    void record(String operation, String match, long startNanos, boolean failed, int rows,
+                Uri uri, String selection) {
+        long durationUs = (System.nanoTime() - startNanos) / 1000;
+        boolean slow = durationUs >= mSlowThresholdMs * 1000;
+
+        synchronized (this) {
+            getStats(operation, match).add(durationUs, failed, rows);
+
+            if (slow) {
+                if (mSlowLog.size() == SLOW_LOG_SIZE) {
+                    mSlowLog.removeFirst();
+                }
+                mSlowLog.addLast(new SlowCall(System.currentTimeMillis(), operation, uri, selection,
+                        durationUs / 1000, rows));
+            }
+        }
+
+        if (slow) {
+            Log.w(PetProvider.LOG_TAG, "Slow " + operation + " of " + uri + " took " + (durationUs / 1000)
+                    + " ms for " + rows + " rows" + (selection != null ? " where " + selection : ""));
+        }
+    }
+
+    /**
+     * Return a cursor that adds the rows of the given one to the call's stats when closed. Rows
+     * are only counted if the caller read them, since counting a database cursor that was never
+     * read would fill its window just for that.
+     */
+    Cursor countRowsOnClose(Cursor cursor, String operation, String match) {
+        return cursor == null ? null : new RowCountingCursor(cursor, operation, match);
+    }
+
+    private synchronized void addRows(String operation, String match, int rows) {
+        getStats(operation, match).rows += rows;
+    }
+
+    private Stats getStats(String operation, String match) {
+        String key = operation + " " + match;
+        Stats stats = mStats.get(key);
+        if (stats == null) {
+            stats = new Stats(operation, match);
+            mStats.put(key, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Forget everything recorded so far. Return the number of stats rows dropped.
+     */
+    synchronized int reset() {
+        int rows = mStats.size();
+        mStats.clear();
+        mSlowLog.clear();
+        return rows;
+    }
+
+    /**
+     * Return one row per operation and URI match, followed by the row cache and notification
+     * counters.
+     */
+    synchronized Cursor query(String[] projection, PetRowCache rowCache,
+            PetNotificationScheduler notifications) {
+        List<Object[]> rows = new ArrayList<Object[]>(mStats.size() + 6);
+        for (Stats stats : mStats.values()) {
+            rows.add(new Object[] {
+                    stats.operation, stats.match, stats.count, stats.errors, stats.rows,
+                    stats.percentile(50), stats.percentile(95), stats.percentile(99), stats.maxUs
+            });
+        }
+
+        // Row cache counters only have a count
+        String match = PetProvider.matchName(PetProvider.PET_ID);
+        rows.add(new Object[] { MetricsEntry.OPERATION_ROW_CACHE_HIT, match, rowCache.hitCount(), 0, 0, 0, 0, 0, 0 });
+        rows.add(new Object[] { MetricsEntry.OPERATION_ROW_CACHE_MISS, match, rowCache.missCount(), 0, 0, 0, 0, 0, 0 });
+        rows.add(new Object[] {
+                MetricsEntry.OPERATION_ROW_CACHE_EVICTION, match, rowCache.evictionCount(), 0, 0, 0, 0, 0, 0
+        });
+
+        // So do the notification counters
+        match = PetProvider.matchName(PetProvider.PETS);
+        rows.add(new Object[] {
+                MetricsEntry.OPERATION_NOTIFICATION_REQUESTED, match, notifications.requestedCount(), 0, 0, 0, 0, 0, 0
+        });
+        rows.add(new Object[] {
+                MetricsEntry.OPERATION_NOTIFICATION_SENT, match, notifications.sentCount(), 0, 0, 0, 0, 0, 0
+        });
+        rows.add(new Object[] {
+                MetricsEntry.OPERATION_NOTIFICATION_SUPPRESSED, match, notifications.suppressedCount(), 0, 0, 0, 0, 0, 0
+        });
+        return toCursor(MetricsEntry.COLUMNS, rows, projection);
+    }
+
+    /**
+     * Return the slow calls, oldest first.
+     */
+    synchronized Cursor querySlowCalls(String[] projection) {
+        List<Object[]> rows = new ArrayList<Object[]>(mSlowLog.size());
+        for (SlowCall call : mSlowLog) {
+            rows.add(new Object[] {
+                    call.time, call.operation, call.uri.toString(), call.selection, call.durationMs, call.rows
+            });
+        }
+        return toCursor(MetricsEntry.SLOW_QUERY_COLUMNS, rows, projection);
+    }
+
+    /**
+     * Put the given columns of rows with all the given columns into a cursor. A null projection
+     * means every column.
+     */
+    private static Cursor toCursor(String[] columns, List<Object[]> rows, String[] projection) {
+        if (projection == null) {
+            projection = columns;
+        }
+        int[] indexes = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            indexes[i] = Arrays.asList(columns).indexOf(projection[i]);
+            if (indexes[i] == -1) {
+                throw new IllegalArgumentException("Unknown metrics column " + projection[i]);
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, rows.size());
+        for (Object[] row : rows) {
+            Object[] values = new Object[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                values[i] = row[indexes[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /**
+     * Counters and latency histogram of one operation on one URI match.
+     *
+     * Latencies in microseconds go into log-linear buckets: one bucket per value below 16, then
+     * 8 buckets per power of two, so a percentile is off by at most an eighth of its value.
+     */
+    static final class Stats {
+
+        // Enough buckets for about 12 days
+        static final int BUCKETS = 16 + 36 * 8;
+
+        final String operation;
+        final String match;
+        final int[] buckets = new int[BUCKETS];
+        long count;
+        long errors;
+        long rows;
+        long maxUs;
+
+        Stats(String operation, String match) {
+            this.operation = operation;
+            this.match = match;
+        }
+
+        void add(long durationUs, boolean failed, int rowCount) {
+            count++;
+            if (failed) {
+                errors++;
+            }
+            rows += rowCount;
+            maxUs = Math.max(maxUs, durationUs);
+            buckets[Math.min(bucketOf(durationUs), BUCKETS - 1)]++;
+        }
+
+        /**
+         * Return the upper bound of the bucket holding the given percentile, capped by the maximum.
+         */
+        long percentile(int percent) {
+            long rank = (count * percent + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBoundOf(i), maxUs);
+                }
+            }
+            return maxUs;
+        }
+
+        static int bucketOf(long value) {
+            if (value < 16) {
+                return (int) Math.max(0, value);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >> (exponent - 3)) & 7;
+            return 16 + (exponent - 4) * 8 + sub;
+        }
+
+        static long upperBoundOf(int bucket) {
+            if (bucket < 16) {
+                return bucket;
+            }
+            int exponent = (bucket - 16) / 8 + 4;
+            int sub = (bucket - 16) % 8;
+            long lower = (long) (8 + sub) << (exponent - 3);
+            return lower + (1L << (exponent - 3)) - 1;
+        }
+    }
+
+    /**
+     * Passes every call to the wrapped cursor, windows included so cross-process reads still fill
+     * them directly, and counts its rows when closed.
+     */
+    private final class RowCountingCursor extends CrossProcessCursorWrapper {
+
+        private final String mOperation;
+        private final String mMatch;
+        private boolean mCounted;
+
+        RowCountingCursor(Cursor cursor, String operation, String match) {
+            super(cursor);
+            mOperation = operation;
+            mMatch = match;
+        }
+
+        @Override
+        public void close() {
+            if (!mCounted) {
+                mCounted = true;
+                Cursor cursor = getWrappedCursor();
+                boolean read = !(cursor instanceof AbstractWindowedCursor)
+                        || ((AbstractWindowedCursor) cursor).hasWindow();
+                if (read && !cursor.isClosed()) {
+                    addRows(mOperation, mMatch, cursor.getCount());
+                }
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * One call that took longer than the threshold.
+     */
+    private static final class SlowCall {
+
+        final long time;
+        final String operation;
+        final Uri uri;
+        final String selection;
+        final long durationMs;
+        final int rows;
+
+        SlowCall(long time, String operation, Uri uri, String selection, long durationMs, int rows) {
+            this.time = time;
+            this.operation = operation;
+            this.uri = uri;
+            this.selection = selection;
+            this.durationMs = durationMs;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+/**
+ * Bounded least-recently-used cache of whole pet rows, keyed by _id, used by {@link PetProvider}
+ * to answer single pet queries without going to the database.
+ */
+class PetRowCache {
+
+    // Every column of the pets table, in the order rows are stored in the cache
+    static final String[] COLUMNS = {
+            PetEntry.COLUMN_ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO
+    };
+
+    private final LruCache<Long, Row> mCache;
+
+    // Bumped on every invalidation, so a row read from the database before a write to it
+    // is not put back into the cache after the write invalidated it
+    private long mGeneration;
+
+    // Constructor
+    PetRowCache(int maxRows) {
+        mCache = new LruCache<Long, Row>(maxRows);
+    }
+
+    /**
+     * Return the cached pet as a cursor with the given columns, or null if it is not cached.
+     */
+    Cursor get(long id, String[] projection) {
+        Row row = mCache.get(id);
+        return row == null ? null : row.toCursor(id, projection);
+    }
+
+    /**
+     * Return the current generation, to pass to {@link #put(long, Cursor, String[])} after reading the database.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache the pet at the current position of a cursor with {@link #COLUMNS}, unless the
+     * cache was invalidated since the given generation. Return the pet with the given columns.
+     */
+    synchronized Cursor put(long generation, Cursor cursor, String[] projection) {
+        long id = cursor.getLong(0);
+        Row row = new Row(cursor.getString(1), cursor.getString(2), cursor.getInt(3), cursor.getInt(4),
+                cursor.getString(5));
+        if (generation == mGeneration) {
+            mCache.put(id, row);
+        }
+        return row.toCursor(id, projection);
+    }
+
+    /**
+     * Drop a pet that was updated or deleted.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mCache.remove(id);
+    }
+
+    /**
+     * Drop every pet, for writes whose rows are not known.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mCache.evictAll();
+    }
+
+    int hitCount() {
+        return mCache.hitCount();
+    }
+
+    int missCount() {
+        return mCache.missCount();
+    }
+
+    int evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /**
+     * Whether every column in the projection can be answered from a cached row.
+     */
+    static boolean canProject(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (indexOf(column) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "PetRowCache[size=" + mCache.size() + ", hits=" + hitCount() + ", misses=" + missCount()
+                + ", evictions=" + evictionCount() + "]";
+    }
+
+    /**
+     * Decoded values of one pet.
+     */
+    private static final class Row {
+
+        final String name;
+        final String breed;
+        final int gender;
+        final int weight;
+        final String photo;
+
+        Row(String name, String breed, int gender, int weight, String photo) {
+            this.name = name;
+            this.breed = breed;
+            this.gender = gender;
+            this.weight = weight;
+            this.photo = photo;
+        }
+
+        Cursor toCursor(long id, String[] projection) {
+            if (projection == null) {
+                projection = COLUMNS;
+            }
+            Object[] values = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                switch (indexOf(projection[i])) {
+                    case 0:
+                        values[i] = id;
+                        break;
+                    case 1:
+                        values[i] = name;
+                        break;
+                    case 2:
+                        values[i] = breed;
+                        break;
+                    case 3:
+                        values[i] = gender;
+                        break;
+                    case 4:
+                        values[i] = weight;
+                        break;
+                    default:
+                        values[i] = photo;
+                        break;
+                }
+            }
+            MatrixCursor cursor = new MatrixCursor(projection, 1);
+            cursor.addRow(values);
+            return cursor;
+        }
+    }
+}
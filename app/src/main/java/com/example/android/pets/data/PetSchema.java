@@ -0,0 +1,404 @@
+package com.example.android.pets.data;
+
+/**
+ * SQL for the pets database, used by {@link PetDBHelper} and {@link PetProvider}.
+ *
+ * This class must not use any Android classes: the benchmark module compiles it on a plain JVM
+ * to run the same statements against a desktop SQLite. The table and column names are the ones
+ * published in {@link PetsContract.PetEntry}.
+ */
+public final class PetSchema {
+
+    // Constructor
+    private PetSchema() { }
+
+    // Table and columns, same as PetsContract.PetEntry
+    static final String TABLE_PETS = "pets";
+    static final String COLUMN_ID = "_id";
+    static final String COLUMN_NAME = "name";
+    static final String COLUMN_BREED = "breed";
+    static final String COLUMN_GENDER = "gender";
+    static final String COLUMN_WEIGHT = "weight";
+    static final String COLUMN_PHOTO = "photo";
+
+    // Full text search table shadowing the name and breed of every pet. Its docid is the pet's _id
+    static final String TABLE_SEARCH = "pets_search";
+
+    // Checkpoint the write-ahead log into the database every this many pages (default is 1000),
+    // so big imports checkpoint less often
+    public static final int WAL_AUTOCHECKPOINT_PAGES = 2000;
+
+    // Truncate the write-ahead log back to this many bytes after a checkpoint
+    public static final long WAL_SIZE_LIMIT_BYTES = 4 * 1024 * 1024;
+
+    // Version 1 : the pets table, with the photo column added in version 7
+    public static final String SQL_CREATE_PETS_TABLE =
+            "CREATE TABLE " + TABLE_PETS + " (" +
+                    COLUMN_ID + " INTEGER PRIMARY KEY," +
+                    COLUMN_NAME + " TEXT NOT NULL," +
+                    COLUMN_BREED + " TEXT," +
+                    COLUMN_GENDER + " INTEGER NOT NULL," +
+                    COLUMN_WEIGHT + " INTEGER NOT NULL DEFAULT 0," +
+                    COLUMN_PHOTO + " TEXT);";
+
+    // Version 2 : indexes for filtering and sorting on every column. The name and breed indexes
+    // also hold the other catalog column, so with the row id they cover (_id, name, breed)
+    public static final String[] SQL_CREATE_INDEXES = sqlCreateIndexes("");
+
+    // The version 2 indexes, with the given suffix after their names
+    private static String[] sqlCreateIndexes(String suffix) {
+        return new String[] {
+                "CREATE INDEX IF NOT EXISTS index_pets_name_breed" + suffix + " ON " + TABLE_PETS +
+                        " (" + COLUMN_NAME + ", " + COLUMN_BREED + ");",
+                "CREATE INDEX IF NOT EXISTS index_pets_breed_name" + suffix + " ON " + TABLE_PETS +
+                        " (" + COLUMN_BREED + ", " + COLUMN_NAME + ");",
+                "CREATE INDEX IF NOT EXISTS index_pets_gender" + suffix + " ON " + TABLE_PETS +
+                        " (" + COLUMN_GENDER + ");",
+                "CREATE INDEX IF NOT EXISTS index_pets_weight" + suffix + " ON " + TABLE_PETS +
+                        " (" + COLUMN_WEIGHT + ");"
+        };
+    }
+
+    // Version 6 : indexes sorting names and breeds for the current locale, for the catalog's sort
+    // orders. LOCALIZED is a collation of Android's SQLite, which rebuilds these indexes when the
+    // locale changes. A desktop SQLite doesn't have it, so the benchmark module swaps in another
+    public static final String COLLATION_LOCALIZED = "LOCALIZED";
+    public static final String[] SQL_CREATE_LOCALIZED_INDEXES = sqlCreateLocalizedIndexes("");
+
+    // The version 6 indexes, with the given suffix after their names
+    private static String[] sqlCreateLocalizedIndexes(String suffix) {
+        return new String[] {
+                "CREATE INDEX IF NOT EXISTS index_pets_name_localized" + suffix + " ON " + TABLE_PETS +
+                        " (" + COLUMN_NAME + " COLLATE " + COLLATION_LOCALIZED + ");",
+                "CREATE INDEX IF NOT EXISTS index_pets_breed_localized" + suffix + " ON " + TABLE_PETS +
+                        " (" + COLUMN_BREED + " COLLATE " + COLLATION_LOCALIZED + ");"
+        };
+    }
+
+    // Version 8 : index of breeds ignoring case, for the catalog's breed filter, a case-insensitive
+    // prefix matched as a NOCASE range
+    public static final String[] SQL_CREATE_NOCASE_INDEXES = sqlCreateNocaseIndexes("");
+
+    // The version 8 indexes, with the given suffix after their names
+    private static String[] sqlCreateNocaseIndexes(String suffix) {
+        return new String[] {
+                "CREATE INDEX IF NOT EXISTS index_pets_breed_nocase" + suffix + " ON " + TABLE_PETS +
+                        " (" + COLUMN_BREED + " COLLATE NOCASE);"
+        };
+    }
+
+    // Every index of the pets table, with the given suffix after their names
+    static String[] sqlCreatePetsIndexes(String suffix) {
+        return concat(concat(sqlCreateIndexes(suffix), sqlCreateLocalizedIndexes(suffix)),
+                sqlCreateNocaseIndexes(suffix));
+    }
+
+    // Version 3 : full text search table over name and breed, filled from the existing pets and
+    // kept in sync by triggers
+    static final String SQL_CREATE_SEARCH_VIRTUAL_TABLE =
+            "CREATE VIRTUAL TABLE " + TABLE_SEARCH + " USING fts4(" + COLUMN_NAME + ", " + COLUMN_BREED + ");";
+
+    static final String[] SQL_CREATE_SEARCH_TRIGGERS = {
+            "CREATE TRIGGER " + TABLE_SEARCH + "_insert AFTER INSERT ON " + TABLE_PETS + " BEGIN " +
+                    "INSERT INTO " + TABLE_SEARCH + " (docid, " + COLUMN_NAME + ", " + COLUMN_BREED + ") " +
+                    "VALUES (new." + COLUMN_ID + ", new." + COLUMN_NAME + ", new." + COLUMN_BREED + "); END;",
+            "CREATE TRIGGER " + TABLE_SEARCH + "_delete AFTER DELETE ON " + TABLE_PETS + " BEGIN " +
+                    "DELETE FROM " + TABLE_SEARCH + " WHERE docid = old." + COLUMN_ID + "; END;",
+            "CREATE TRIGGER " + TABLE_SEARCH + "_update AFTER UPDATE OF " + COLUMN_ID + ", " + COLUMN_NAME + ", " +
+                    COLUMN_BREED + " ON " + TABLE_PETS + " BEGIN " +
+                    "DELETE FROM " + TABLE_SEARCH + " WHERE docid = old." + COLUMN_ID + "; " +
+                    "INSERT INTO " + TABLE_SEARCH + " (docid, " + COLUMN_NAME + ", " + COLUMN_BREED + ") " +
+                    "VALUES (new." + COLUMN_ID + ", new." + COLUMN_NAME + ", new." + COLUMN_BREED + "); END;"
+    };
+
+    public static final String[] SQL_CREATE_SEARCH_TABLE = concat(new String[] {
+            SQL_CREATE_SEARCH_VIRTUAL_TABLE,
+            "INSERT INTO " + TABLE_SEARCH + " (docid, " + COLUMN_NAME + ", " + COLUMN_BREED + ") " +
+                    "SELECT " + COLUMN_ID + ", " + COLUMN_NAME + ", " + COLUMN_BREED + " FROM " + TABLE_PETS + ";"
+    }, SQL_CREATE_SEARCH_TRIGGERS);
+
+    // Running totals per gender and per breed, kept in sync with the pets table by triggers.
+    // Column names and groups are the ones published in PetsContract.StatsEntry
+    static final String TABLE_STATS = "pets_stats";
+    static final String COLUMN_STAT_GROUP = "stat_group";
+    static final String COLUMN_STAT_KEY = "stat_key";
+    static final String COLUMN_PET_COUNT = "pet_count";
+    static final String COLUMN_TOTAL_WEIGHT = "total_weight";
+    static final String COLUMN_AVERAGE_WEIGHT = "average_weight";
+
+    // Groups of the stats table. Pets without a breed are counted under an empty breed
+    static final String STAT_GROUP_GENDER = "gender";
+    static final String STAT_GROUP_BREED = "breed";
+    static final String STAT_GROUP_TOTAL = "total";
+
+    // Triggers adding each new pet to its gender and breed rows and taking each old one out
+    static final String[] SQL_CREATE_STATS_TRIGGERS = {
+            "CREATE TRIGGER " + TABLE_STATS + "_insert AFTER INSERT ON " + TABLE_PETS + " BEGIN " +
+                    addToStats("new") + " END;",
+            "CREATE TRIGGER " + TABLE_STATS + "_delete AFTER DELETE ON " + TABLE_PETS + " BEGIN " +
+                    removeFromStats("old") + " END;",
+            "CREATE TRIGGER " + TABLE_STATS + "_update AFTER UPDATE OF " + COLUMN_BREED + ", " + COLUMN_GENDER + ", " +
+                    COLUMN_WEIGHT + " ON " + TABLE_PETS + " BEGIN " +
+                    removeFromStats("old") + " " + addToStats("new") + " END;"
+    };
+
+    // Version 4 : stats table, filled from the existing pets and kept up to date by the triggers
+    public static final String[] SQL_CREATE_STATS_TABLE = concat(new String[] {
+            "CREATE TABLE " + TABLE_STATS + " (" +
+                    COLUMN_STAT_GROUP + " TEXT NOT NULL," +
+                    COLUMN_STAT_KEY + " TEXT NOT NULL," +
+                    COLUMN_PET_COUNT + " INTEGER NOT NULL," +
+                    COLUMN_TOTAL_WEIGHT + " INTEGER NOT NULL," +
+                    "PRIMARY KEY (" + COLUMN_STAT_GROUP + ", " + COLUMN_STAT_KEY + "));",
+            "INSERT INTO " + TABLE_STATS + " SELECT '" + STAT_GROUP_GENDER + "', " + COLUMN_GENDER + ", " +
+                    "COUNT(*), SUM(" + COLUMN_WEIGHT + ") FROM " + TABLE_PETS + " GROUP BY " + COLUMN_GENDER + ";",
+            "INSERT INTO " + TABLE_STATS + " SELECT '" + STAT_GROUP_BREED + "', IFNULL(" + COLUMN_BREED + ", ''), " +
+                    "COUNT(*), SUM(" + COLUMN_WEIGHT + ") FROM " + TABLE_PETS +
+                    " GROUP BY IFNULL(" + COLUMN_BREED + ", '');"
+    }, SQL_CREATE_STATS_TRIGGERS);
+
+    // Statements adding the pet in the given trigger row ("new") to its gender and breed totals
+    private static String addToStats(String row) {
+        return addToStats(row, STAT_GROUP_GENDER, "CAST(" + row + "." + COLUMN_GENDER + " AS TEXT)") + " " +
+                addToStats(row, STAT_GROUP_BREED, "IFNULL(" + row + "." + COLUMN_BREED + ", '')");
+    }
+
+    private static String addToStats(String row, String group, String key) {
+        return "INSERT OR IGNORE INTO " + TABLE_STATS + " VALUES ('" + group + "', " + key + ", 0, 0); " +
+                "UPDATE " + TABLE_STATS + " SET " +
+                COLUMN_PET_COUNT + " = " + COLUMN_PET_COUNT + " + 1, " +
+                COLUMN_TOTAL_WEIGHT + " = " + COLUMN_TOTAL_WEIGHT + " + " + row + "." + COLUMN_WEIGHT +
+                " WHERE " + COLUMN_STAT_GROUP + " = '" + group + "' AND " + COLUMN_STAT_KEY + " = " + key + ";";
+    }
+
+    // Statements taking the pet in the given trigger row ("old") out of its gender and breed
+    // totals, dropping rows that no pet is left in
+    private static String removeFromStats(String row) {
+        return removeFromStats(row, STAT_GROUP_GENDER, "CAST(" + row + "." + COLUMN_GENDER + " AS TEXT)") + " " +
+                removeFromStats(row, STAT_GROUP_BREED, "IFNULL(" + row + "." + COLUMN_BREED + ", '')");
+    }
+
+    private static String removeFromStats(String row, String group, String key) {
+        String where = " WHERE " + COLUMN_STAT_GROUP + " = '" + group + "' AND " + COLUMN_STAT_KEY + " = " + key;
+        return "UPDATE " + TABLE_STATS + " SET " +
+                COLUMN_PET_COUNT + " = " + COLUMN_PET_COUNT + " - 1, " +
+                COLUMN_TOTAL_WEIGHT + " = " + COLUMN_TOTAL_WEIGHT + " - " + row + "." + COLUMN_WEIGHT + where + "; " +
+                "DELETE FROM " + TABLE_STATS + where + " AND " + COLUMN_PET_COUNT + " = 0;";
+    }
+
+    // Change log: one row per pet inserted, updated or deleted, numbered in order by the sequence,
+    // which is the row id. Column names and operations are the ones published in
+    // PetsContract.ChangesEntry
+    static final String TABLE_CHANGES = "pets_changes";
+    static final String COLUMN_SEQUENCE = "sequence";
+    static final String COLUMN_PET_ID = "pet_id";
+    static final String COLUMN_OPERATION = "operation";
+
+    static final String OPERATION_INSERT = "insert";
+    static final String OPERATION_UPDATE = "update";
+    static final String OPERATION_DELETE = "delete";
+    static final String OPERATION_CLEAR = "clear";
+
+    // Number of most recent changes kept, and number of changes between two compactions
+    static final int RETAINED_CHANGES = 10000;
+    static final int COMPACT_CHANGES_EVERY = 1000;
+
+    // Triggers logging each change of the pets table. An update of the _id logs a delete of the old one
+    static final String[] SQL_CREATE_CHANGES_TRIGGERS = {
+            "CREATE TRIGGER " + TABLE_CHANGES + "_insert AFTER INSERT ON " + TABLE_PETS + " BEGIN " +
+                    logChange("new", OPERATION_INSERT) + " END;",
+            "CREATE TRIGGER " + TABLE_CHANGES + "_delete AFTER DELETE ON " + TABLE_PETS + " BEGIN " +
+                    logChange("old", OPERATION_DELETE) + " END;",
+            "CREATE TRIGGER " + TABLE_CHANGES + "_update AFTER UPDATE ON " + TABLE_PETS + " BEGIN " +
+                    "INSERT INTO " + TABLE_CHANGES + " (" + COLUMN_PET_ID + ", " + COLUMN_OPERATION + ") " +
+                    "SELECT old." + COLUMN_ID + ", '" + OPERATION_DELETE + "' " +
+                    "WHERE old." + COLUMN_ID + " <> new." + COLUMN_ID + "; " +
+                    logChange("new", OPERATION_UPDATE) + " END;"
+    };
+
+    // Version 5 : change log, written by the triggers in the same transaction as each change. Every
+    // COMPACT_CHANGES_EVERY changes, those older than the last RETAINED_CHANGES are dropped
+    public static final String[] SQL_CREATE_CHANGES_TABLE = concat(new String[] {
+            "CREATE TABLE " + TABLE_CHANGES + " (" +
+                    COLUMN_SEQUENCE + " INTEGER PRIMARY KEY," +
+                    COLUMN_PET_ID + " INTEGER," +
+                    COLUMN_OPERATION + " TEXT NOT NULL);",
+            "CREATE TRIGGER " + TABLE_CHANGES + "_compact AFTER INSERT ON " + TABLE_CHANGES +
+                    " WHEN new." + COLUMN_SEQUENCE + " % " + COMPACT_CHANGES_EVERY + " = 0 BEGIN " +
+                    "DELETE FROM " + TABLE_CHANGES + " WHERE " + COLUMN_SEQUENCE + " <= new." + COLUMN_SEQUENCE +
+                    " - " + RETAINED_CHANGES + "; END;"
+    }, SQL_CREATE_CHANGES_TRIGGERS);
+
+    // Statement logging the change of the pet in the given trigger row
+    private static String logChange(String row, String operation) {
+        return "INSERT INTO " + TABLE_CHANGES + " (" + COLUMN_PET_ID + ", " + COLUMN_OPERATION + ") " +
+                "VALUES (" + row + "." + COLUMN_ID + ", '" + operation + "');";
+    }
+
+    // Oldest change kept, null when there is none
+    private static final String OLDEST_CHANGE = "(SELECT MIN(" + COLUMN_SEQUENCE + ") FROM " + TABLE_CHANGES + ")";
+
+    // Latest change of each pet changed after the sequence given as the three arguments, with its
+    // current values. Reads the log from that sequence on, and the pets by _id. When the changes
+    // right after that sequence are no longer kept, returns a single clear at the latest sequence
+    // instead, for the reader to start over
+    public static final String SQL_QUERY_CHANGES =
+            "SELECT c." + COLUMN_SEQUENCE + " AS " + COLUMN_SEQUENCE + ", " +
+                    "c." + COLUMN_PET_ID + " AS " + COLUMN_PET_ID + ", " +
+                    "c." + COLUMN_OPERATION + " AS " + COLUMN_OPERATION + ", " +
+                    "p." + COLUMN_NAME + " AS " + COLUMN_NAME + ", " +
+                    "p." + COLUMN_BREED + " AS " + COLUMN_BREED + ", " +
+                    "p." + COLUMN_GENDER + " AS " + COLUMN_GENDER + ", " +
+                    "p." + COLUMN_WEIGHT + " AS " + COLUMN_WEIGHT + " " +
+            "FROM " + TABLE_CHANGES + " c LEFT JOIN " + TABLE_PETS + " p ON p." + COLUMN_ID + " = c." + COLUMN_PET_ID + " " +
+            "WHERE c." + COLUMN_SEQUENCE + " IN (SELECT MAX(" + COLUMN_SEQUENCE + ") FROM " + TABLE_CHANGES +
+                    " WHERE " + COLUMN_SEQUENCE + " > ? GROUP BY " + COLUMN_PET_ID + ") " +
+                    "AND IFNULL(" + OLDEST_CHANGE + ", 0) <= ? + 1 " +
+            "UNION ALL " +
+            "SELECT (SELECT MAX(" + COLUMN_SEQUENCE + ") FROM " + TABLE_CHANGES + "), NULL, '" + OPERATION_CLEAR + "', " +
+                    "NULL, NULL, NULL, NULL WHERE " + OLDEST_CHANGE + " > ? + 1";
+
+    // All stats with their average weight: one row for the whole table, summed from the gender
+    // rows, then one per gender and one per breed. Reads never touch the pets table
+    public static final String SQL_QUERY_STATS =
+            "SELECT '" + STAT_GROUP_TOTAL + "' AS " + COLUMN_STAT_GROUP + ", NULL AS " + COLUMN_STAT_KEY + ", " +
+                    "IFNULL(SUM(" + COLUMN_PET_COUNT + "), 0) AS " + COLUMN_PET_COUNT + ", " +
+                    "IFNULL(SUM(" + COLUMN_TOTAL_WEIGHT + "), 0) AS " + COLUMN_TOTAL_WEIGHT + ", " +
+                    "IFNULL(SUM(" + COLUMN_TOTAL_WEIGHT + ") * 1.0 / SUM(" + COLUMN_PET_COUNT + "), 0) AS " + COLUMN_AVERAGE_WEIGHT + " " +
+                    "FROM " + TABLE_STATS + " WHERE " + COLUMN_STAT_GROUP + " = '" + STAT_GROUP_GENDER + "' " +
+            "UNION ALL " +
+            "SELECT " + COLUMN_STAT_GROUP + ", NULLIF(" + COLUMN_STAT_KEY + ", ''), " +
+                    COLUMN_PET_COUNT + ", " + COLUMN_TOTAL_WEIGHT + ", " +
+                    COLUMN_TOTAL_WEIGHT + " * 1.0 / " + COLUMN_PET_COUNT + " FROM " + TABLE_STATS;
+
+    // Photo trash: the file names of photos no longer used by any pet, because their pet was
+    // deleted or given another photo. The provider deletes the files, then their rows
+    static final String TABLE_PHOTO_TRASH = "pets_photo_trash";
+
+    // Triggers putting the photo of each deleted pet, and each replaced photo, in the trash
+    static final String[] SQL_CREATE_PHOTO_TRIGGERS = {
+            "CREATE TRIGGER " + TABLE_PHOTO_TRASH + "_delete AFTER DELETE ON " + TABLE_PETS +
+                    " WHEN old." + COLUMN_PHOTO + " IS NOT NULL BEGIN " +
+                    "INSERT INTO " + TABLE_PHOTO_TRASH + " (" + COLUMN_PHOTO + ") VALUES (old." + COLUMN_PHOTO + "); END;",
+            "CREATE TRIGGER " + TABLE_PHOTO_TRASH + "_update AFTER UPDATE OF " + COLUMN_PHOTO + " ON " + TABLE_PETS +
+                    " WHEN old." + COLUMN_PHOTO + " IS NOT NULL AND old." + COLUMN_PHOTO + " IS NOT new." + COLUMN_PHOTO +
+                    " BEGIN INSERT INTO " + TABLE_PHOTO_TRASH + " (" + COLUMN_PHOTO + ") VALUES (old." + COLUMN_PHOTO + "); END;"
+    };
+
+    // Version 7 : pet photos. Each photo is a file outside the database, named by the photo column
+    public static final String SQL_ADD_PHOTO_COLUMN =
+            "ALTER TABLE " + TABLE_PETS + " ADD COLUMN " + COLUMN_PHOTO + " TEXT;";
+    public static final String[] SQL_CREATE_PHOTO_TRASH_TABLE = concat(new String[] {
+            "CREATE TABLE " + TABLE_PHOTO_TRASH + " (" + COLUMN_PHOTO + " TEXT NOT NULL);"
+    }, SQL_CREATE_PHOTO_TRIGGERS);
+
+    // The whole current schema, for a new database. Run by PetDBHelper.onCreate, and by the
+    // benchmark module so it measures the same tables, indexes and triggers
+    public static final String[] SQL_CREATE_SCHEMA = concat(concat(concat(concat(concat(
+            new String[] { SQL_CREATE_PETS_TABLE },
+            sqlCreatePetsIndexes("")),
+            SQL_CREATE_SEARCH_TABLE),
+            SQL_CREATE_STATS_TABLE),
+            SQL_CREATE_CHANGES_TABLE),
+            SQL_CREATE_PHOTO_TRASH_TABLE);
+
+    // Photos in the trash, oldest first, with the row id to delete them by once their files are gone
+    static final String SQL_QUERY_PHOTO_TRASH =
+            "SELECT rowid, " + COLUMN_PHOTO + " FROM " + TABLE_PHOTO_TRASH + " ORDER BY rowid LIMIT ?";
+
+    // Insert of a whole pet, bound in column order. A null _id lets SQLite pick the next row id
+    public static final String SQL_INSERT_PET =
+            "INSERT INTO " + TABLE_PETS + " (" +
+                    COLUMN_ID + ", " +
+                    COLUMN_NAME + ", " +
+                    COLUMN_BREED + ", " +
+                    COLUMN_GENDER + ", " +
+                    COLUMN_WEIGHT + ") VALUES (?, ?, ?, ?, ?)";
+
+    // Prefixes of the tables that a truncated pets table and search table are renamed to, until
+    // their rows are purged in the background. Each is followed by a number
+    static final String PURGE_PETS_PREFIX = TABLE_PETS + "_purge_";
+    static final String PURGE_SEARCH_PREFIX = TABLE_SEARCH + "_purge_";
+
+    // Number of pets, read from the stats instead of counting the pets table
+    static final String SQL_COUNT_PETS =
+            "SELECT IFNULL(SUM(" + COLUMN_PET_COUNT + "), 0) FROM " + TABLE_STATS +
+                    " WHERE " + COLUMN_STAT_GROUP + " = '" + STAT_GROUP_GENDER + "'";
+
+    // Number of version 2 indexes on the pets table, counted by the gender index. Version 8 adds
+    // an index to a table whose version 2 indexes may still be on a table waiting to be purged
+    static final String SQL_COUNT_PETS_INDEXES =
+            "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND tbl_name = '" + TABLE_PETS + "' " +
+                    "AND name GLOB 'index_pets_gender*'";
+
+    // Tables waiting to be purged, pets tables first. The search table's own shadow tables
+    // share its prefix, so only the virtual table itself is listed
+    static final String SQL_QUERY_PURGE_TABLES =
+            "SELECT name FROM sqlite_master WHERE type = 'table' AND (name GLOB '" + PURGE_PETS_PREFIX + "*' " +
+                    "OR (name GLOB '" + PURGE_SEARCH_PREFIX + "*' AND sql GLOB 'CREATE VIRTUAL TABLE*')) " +
+                    "ORDER BY name GLOB '" + PURGE_SEARCH_PREFIX + "*', name LIMIT 1";
+
+    /**
+     * Statements emptying the pets table without touching its rows: the pets and search tables
+     * are renamed to purge tables with the given number, then created again empty with their
+     * triggers, the stats start over and the change log is replaced by a clear. Run in one
+     * transaction, this costs the same for any number of pets. The old rows are removed later with {@link #sqlPurgeChunk(String, int)}.
+     *
+     * The indexes stay with the renamed pets table and are dropped with it. Index names are
+     * unique per database, so the new, empty table gets its indexes right away under names
+     * ending with the purge number.
+     */
+    static String[] sqlTruncatePets(long purgeNumber) {
+        String[] dropTriggers = {
+                "DROP TRIGGER IF EXISTS " + TABLE_SEARCH + "_insert;",
+                "DROP TRIGGER IF EXISTS " + TABLE_SEARCH + "_delete;",
+                "DROP TRIGGER IF EXISTS " + TABLE_SEARCH + "_update;",
+                "DROP TRIGGER IF EXISTS " + TABLE_STATS + "_insert;",
+                "DROP TRIGGER IF EXISTS " + TABLE_STATS + "_delete;",
+                "DROP TRIGGER IF EXISTS " + TABLE_STATS + "_update;",
+                "DROP TRIGGER IF EXISTS " + TABLE_CHANGES + "_insert;",
+                "DROP TRIGGER IF EXISTS " + TABLE_CHANGES + "_delete;",
+                "DROP TRIGGER IF EXISTS " + TABLE_CHANGES + "_update;",
+                "DROP TRIGGER IF EXISTS " + TABLE_PHOTO_TRASH + "_delete;",
+                "DROP TRIGGER IF EXISTS " + TABLE_PHOTO_TRASH + "_update;"
+        };
+        String[] swapTables = {
+                "ALTER TABLE " + TABLE_PETS + " RENAME TO " + PURGE_PETS_PREFIX + purgeNumber + ";",
+                "ALTER TABLE " + TABLE_SEARCH + " RENAME TO " + PURGE_SEARCH_PREFIX + purgeNumber + ";",
+                SQL_CREATE_PETS_TABLE,
+                SQL_CREATE_SEARCH_VIRTUAL_TABLE,
+                "DELETE FROM " + TABLE_STATS + ";",
+                "INSERT INTO " + TABLE_CHANGES + " (" + COLUMN_OPERATION + ") VALUES ('" + OPERATION_CLEAR + "');",
+                "DELETE FROM " + TABLE_CHANGES + " WHERE " + COLUMN_SEQUENCE + " < last_insert_rowid();"
+        };
+        String[] createIndexes = sqlCreatePetsIndexes("_" + purgeNumber);
+        return concat(concat(concat(dropTriggers, swapTables), createIndexes), concat(concat(SQL_CREATE_SEARCH_TRIGGERS,
+                SQL_CREATE_STATS_TRIGGERS), concat(SQL_CREATE_CHANGES_TRIGGERS, SQL_CREATE_PHOTO_TRIGGERS)));
+    }
+
+    /**
+     * Statements deleting up to the given number of rows from a purge table. The photos of purged
+     * pets go to the trash first, as the delete trigger would have done.
+     */
+    static String[] sqlPurgeChunk(String purgeTable, int rows) {
+        if (purgeTable.startsWith(PURGE_SEARCH_PREFIX)) {
+            return new String[] {
+                    "DELETE FROM " + purgeTable + " WHERE docid IN (SELECT docid FROM " + purgeTable +
+                            " LIMIT " + rows + ")"
+            };
+        }
+        String chunk = COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " + purgeTable + " LIMIT " + rows + ")";
+        return new String[] {
+                "INSERT INTO " + TABLE_PHOTO_TRASH + " (" + COLUMN_PHOTO + ") SELECT " + COLUMN_PHOTO +
+                        " FROM " + purgeTable + " WHERE " + chunk + " AND " + COLUMN_PHOTO + " IS NOT NULL",
+                "DELETE FROM " + purgeTable + " WHERE " + chunk
+        };
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        String[] all = new String[first.length + second.length];
+        System.arraycopy(first, 0, all, 0, first.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        return all;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Databases of the sites other than the main one. Each site has its own file with the whole pet
+ * schema, so each one stays small and can be vacuumed, backed up or removed on its own. A site's
+ * file is created the first time it is used.
+ */
+final class PetSiteDatabases {
+
+    private final Context mContext;
+
+    // Helpers of the sites used so far, by site
+    private final Map<String, PetDBHelper> mHelpers = new HashMap<String, PetDBHelper>();
+
+    // Constructor
+    PetSiteDatabases(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Return the database of the given site, opening it and creating its file if needed.
+     */
+    SQLiteDatabase get(String site) {
+        PetDBHelper helper;
+        synchronized (mHelpers) {
+            helper = mHelpers.get(site);
+            if (helper == null) {
+                helper = new PetDBHelper(mContext, PetDBHelper.databaseName(site));
+                mHelpers.put(site, helper);
+            }
+        }
+
+        // The helper opens the file once, and returns the same database afterwards
+        return helper.getWritableDatabase();
+    }
+
+    /**
+     * Return the sites other than the main one that have a database file, sorted by name.
+     */
+    List<String> sites() {
+        List<String> sites = new ArrayList<String>();
+        File directory = mContext.getDatabasePath(PetDBHelper.DATABASE_NAME).getParentFile();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                String site = PetDBHelper.siteOf(name);
+                if (site != null && !PetsContract.SITE_MAIN.equals(site)) {
+                    sites.add(site);
+                }
+            }
+        }
+        Collections.sort(sites);
+        return sites;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compiled statements for the single pet paths of {@link PetProvider}: delete by id, and update
+ * by id for every combination of the pet columns. The id is bound as a long, so no selection
+ * string or arguments are built per call.
+ *
+ * Statements are taken out of their slot while in use and put back afterwards. A thread that
+ * finds a slot empty, because another thread is using that statement, compiles its own for that
+ * call, so no thread ever waits on another while holding the database.
+ */
+final class PetStatementCache {
+
+    // Columns an update can set, each one a bit of the update's slot
+    private static final String[] COLUMNS = {
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    // Slot of the delete. The update of a set of columns is in slot 1 + the bits of its columns
+    private static final int SLOT_DELETE = 0;
+
+    private final SQLiteDatabase mDatabase;
+
+    // Statements not in use, null for those never compiled or in use
+    private final AtomicReferenceArray<SQLiteStatement> mIdle =
+            new AtomicReferenceArray<SQLiteStatement>(1 + (1 << COLUMNS.length));
+
+    // Constructor
+    PetStatementCache(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Whether {@link #updateById(long, ContentValues)} can write the given values, which it can
+     * when they only hold pet columns.
+     */
+    static boolean canUpdate(ContentValues values) {
+        return columnsOf(values) != 0;
+    }
+
+    // Bits of the columns in the values, or 0 when there is any other key
+    private static int columnsOf(ContentValues values) {
+        int columns = 0;
+        int count = 0;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (values.containsKey(COLUMNS[i])) {
+                columns |= 1 << i;
+                count++;
+            }
+        }
+        return count == values.size() ? columns : 0;
+    }
+
+    /**
+     * Delete the pet with the given id. Return the number of rows deleted.
+     */
+    int deleteById(long id) {
+        SQLiteStatement statement = acquire(SLOT_DELETE);
+        try {
+            statement.bindLong(1, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(SLOT_DELETE, statement);
+        }
+    }
+
+    /**
+     * Update the pet with the given id, for values that {@link #canUpdate(ContentValues)}.
+     * Return the number of rows updated.
+     */
+    int updateById(long id, ContentValues values) {
+        int columns = columnsOf(values);
+        int slot = 1 + columns;
+        SQLiteStatement statement = acquire(slot);
+        try {
+            int index = 1;
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if ((columns & (1 << i)) != 0) {
+                    bind(statement, index++, values.get(COLUMNS[i]));
+                }
+            }
+            statement.bindLong(index, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(slot, statement);
+        }
+    }
+
+    // Bind a value the way SQLiteDatabase.update() would
+    private static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Float || value instanceof Double) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    private SQLiteStatement acquire(int slot) {
+        SQLiteStatement statement = mIdle.getAndSet(slot, null);
+        return statement != null ? statement : mDatabase.compileStatement(sqlFor(slot));
+    }
+
+    private void release(int slot, SQLiteStatement statement) {
+        statement.clearBindings();
+
+        // Keep it unless another thread put one back in the meantime
+        if (!mIdle.compareAndSet(slot, null, statement)) {
+            statement.close();
+        }
+    }
+
+    // DELETE FROM pets WHERE _id=?   or   UPDATE pets SET name=?, weight=? WHERE _id=?
+    private static String sqlFor(int slot) {
+        if (slot == SLOT_DELETE) {
+            return "DELETE FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_ID + "=?";
+        }
+        int columns = slot - 1;
+        StringBuilder sql = new StringBuilder("UPDATE ").append(PetEntry.TABLE_NAME).append(" SET ");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if ((columns & (1 << i)) != 0) {
+                if (sql.charAt(sql.length() - 1) == '?') {
+                    sql.append(", ");
+                }
+                sql.append(COLUMNS[i]).append("=?");
+            }
+        }
+        return sql.append(" WHERE ").append(PetEntry.COLUMN_ID).append("=?").toString();
+    }
+
+    /**
+     * Close every statement not in use. Statements in use are closed when put back.
+     */
+    void close() {
+        for (int slot = 0; slot < mIdle.length(); slot++) {
+            SQLiteStatement statement = mIdle.getAndSet(slot, null);
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes pets one at a time as NDJSON (one JSON object per line) or CSV (with a
+ * header line), for {@link PetProvider}'s streaming export and import. Nothing is buffered
+ * beyond the current pet.
+ */
+final class PetTransfer {
+
+    // Columns of an exported pet, in CSV order
+    static final String[] COLUMNS = {
+            PetEntry.COLUMN_ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    // Constructor
+    private PetTransfer() { }
+
+    /**
+     * Whether the given format can be exported and imported.
+     */
+    static boolean isValidFormat(String format) {
+        return PetsContract.FORMAT_NDJSON.equals(format) || PetsContract.FORMAT_CSV.equals(format);
+    }
+
+    /**
+     * Write what comes before the first pet: the header line for CSV, nothing for NDJSON.
+     */
+    static void writeHeader(Writer writer, String format) throws IOException {
+        if (PetsContract.FORMAT_CSV.equals(format)) {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(COLUMNS[i]);
+            }
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Write the pet at the current position of a cursor with the {@link #COLUMNS} columns.
+     */
+    static void writePet(Writer writer, Cursor cursor, String format) throws IOException {
+        long id = cursor.getLong(0);
+        String name = cursor.getString(1);
+        String breed = cursor.getString(2);
+        int gender = cursor.getInt(3);
+        int weight = cursor.getInt(4);
+
+        if (PetsContract.FORMAT_CSV.equals(format)) {
+            writer.write(Long.toString(id));
+            writer.write(',');
+            writeCsvField(writer, name);
+            writer.write(',');
+            if (breed != null) {
+                writeCsvField(writer, breed);
+            }
+            writer.write(',');
+            writer.write(Integer.toString(gender));
+            writer.write(',');
+            writer.write(Integer.toString(weight));
+        } else {
+            // {"_id":3,"name":"Toto","breed":"Terrier","gender":1,"weight":7}
+            writer.write("{\"" + PetEntry.COLUMN_ID + "\":");
+            writer.write(Long.toString(id));
+            writer.write(",\"" + PetEntry.COLUMN_PET_NAME + "\":");
+            writer.write(JSONObject.quote(name));
+            writer.write(",\"" + PetEntry.COLUMN_PET_BREED + "\":");
+            writer.write(breed == null ? "null" : JSONObject.quote(breed));
+            writer.write(",\"" + PetEntry.COLUMN_PET_GENDER + "\":");
+            writer.write(Integer.toString(gender));
+            writer.write(",\"" + PetEntry.COLUMN_PET_WEIGHT + "\":");
+            writer.write(Integer.toString(weight));
+            writer.write('}');
+        }
+        writer.write('\n');
+    }
+
+    // Quote a CSV field when it holds a separator, a quote or a line break
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    /**
+     * Reads pets back one at a time. Exported ids are left out, so imported pets get new ids.
+     */
+    static final class PetReader {
+
+        private final BufferedReader mReader;
+        private final String mFormat;
+
+        // For CSV, the index of each of COLUMNS in a record, or -1 when it is missing
+        private int[] mCsvColumns;
+
+        // Line or CSV record of the last pet read, for error messages
+        private int mLine;
+
+        // Character read ahead by the CSV parser, or -2 for none
+        private int mPeeked = -2;
+
+        // Constructor
+        PetReader(BufferedReader reader, String format) {
+            mReader = reader;
+            mFormat = format;
+        }
+
+        /**
+         * Return the next pet, or null at the end. Throw IllegalArgumentException for a pet
+         * that can't be read.
+         */
+        ContentValues next() throws IOException {
+            return PetsContract.FORMAT_CSV.equals(mFormat) ? nextCsv() : nextJson();
+        }
+
+        private ContentValues nextJson() throws IOException {
+            String line;
+            do {
+                line = readLine();
+                if (line == null) {
+                    return null;
+                }
+            } while (line.trim().isEmpty());
+
+            try {
+                JSONObject object = new JSONObject(line);
+                ContentValues values = new ContentValues();
+                // getString() would turn a JSON null into "null", so nulls are put as nulls.
+                // A null name is then rejected like a missing one
+                putString(values, object, PetEntry.COLUMN_PET_NAME);
+                putString(values, object, PetEntry.COLUMN_PET_BREED);
+                values.put(PetEntry.COLUMN_PET_GENDER, object.getInt(PetEntry.COLUMN_PET_GENDER));
+                if (!object.isNull(PetEntry.COLUMN_PET_WEIGHT)) {
+                    values.put(PetEntry.COLUMN_PET_WEIGHT, object.getInt(PetEntry.COLUMN_PET_WEIGHT));
+                }
+                return values;
+            } catch (JSONException e) {
+                throw new IllegalArgumentException("Invalid pet on line " + mLine + ": " + e.getMessage());
+            }
+        }
+
+        // Put a text field of a JSON object, null when it is null or missing
+        private static void putString(ContentValues values, JSONObject object, String key) throws JSONException {
+            if (object.isNull(key)) {
+                values.putNull(key);
+            } else {
+                values.put(key, object.getString(key));
+            }
+        }
+
+        private String readLine() throws IOException {
+            String line = mReader.readLine();
+            if (line != null) {
+                mLine++;
+            }
+            return line;
+        }
+
+        private ContentValues nextCsv() throws IOException {
+            // The first record names the columns
+            if (mCsvColumns == null) {
+                List<String> header = readCsvRecord();
+                if (header == null) {
+                    return null;
+                }
+                mCsvColumns = new int[COLUMNS.length];
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    mCsvColumns[i] = header.indexOf(COLUMNS[i]);
+                }
+                if (mCsvColumns[1] == -1 || mCsvColumns[3] == -1) {
+                    throw new IllegalArgumentException("CSV header needs " + PetEntry.COLUMN_PET_NAME
+                            + " and " + PetEntry.COLUMN_PET_GENDER + " columns");
+                }
+            }
+
+            List<String> record;
+            do {
+                record = readCsvRecord();
+                if (record == null) {
+                    return null;
+                }
+            } while (record.size() == 1 && record.get(0).isEmpty());
+
+            try {
+                ContentValues values = new ContentValues();
+                values.put(PetEntry.COLUMN_PET_NAME, field(record, 1));
+                String breed = field(record, 2);
+                if (breed != null && !breed.isEmpty()) {
+                    values.put(PetEntry.COLUMN_PET_BREED, breed);
+                }
+                values.put(PetEntry.COLUMN_PET_GENDER, Integer.parseInt(field(record, 3)));
+                String weight = field(record, 4);
+                if (weight != null && !weight.isEmpty()) {
+                    values.put(PetEntry.COLUMN_PET_WEIGHT, Integer.parseInt(weight));
+                }
+                return values;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid pet in record " + mLine + ": " + e.getMessage());
+            }
+        }
+
+        // Value of one of COLUMNS in a record, or null when the column or value is missing
+        private String field(List<String> record, int column) {
+            int index = mCsvColumns[column];
+            return index == -1 || index >= record.size() ? null : record.get(index);
+        }
+
+        // Read one record, which may span lines inside quotes. Return null at the end
+        private List<String> readCsvRecord() throws IOException {
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            mLine++;
+
+            List<String> fields = new ArrayList<String>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IllegalArgumentException("Unterminated quote in record " + mLine);
+                    }
+                    if (c == '"') {
+                        c = read();
+                        if (c != '"') {
+                            quoted = false;
+                            continue;
+                        }
+                    }
+                    field.append((char) c);
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c == -1) {
+                    break;
+                } else if (c == '\r') {
+                    // Dropped, "\r\n" ends a record like "\n"
+                    int next = read();
+                    if (next != '\n') {
+                        unread(next);
+                    }
+                    break;
+                } else {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+
+        private int read() throws IOException {
+            if (mPeeked != -2) {
+                int c = mPeeked;
+                mPeeked = -2;
+                return c;
+            }
+            return mReader.read();
+        }
+
+        private void unread(int c) {
+            mPeeked = c;
+        }
+    }
+}
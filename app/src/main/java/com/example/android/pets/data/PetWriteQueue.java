@@ -0,0 +1,180 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs inserts, updates and deletes of pets on a background thread, one after the other, and
+ * reports each result on the main thread. An update to a pet that is queued right behind another
+ * update to the same pet, which hasn't started yet, is merged into it.
+ */
+public final class PetWriteQueue {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+
+    // Called on the main thread when a write is done
+    public interface OnWriteCompleteListener {
+
+        /**
+         * @param newUri URI of the inserted pet, or null for updates, deletes and failed inserts
+         * @param rowsAffected number of pets inserted, updated or deleted, 0 if the write failed
+         */
+        void onWriteComplete(Uri newUri, int rowsAffected);
+    }
+
+    private static PetWriteQueue sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    // Single thread, so writes run in the order they were queued
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Last write queued, which later updates to the same pet may merge into
+    private Write mLastWrite;
+
+    private PetWriteQueue(Context context) {
+        mContentResolver = context.getContentResolver();
+    }
+
+    /**
+     * Return the write queue of the app.
+     */
+    public static synchronized PetWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriteQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queue an insert of a new pet.
+     */
+    public void insert(Uri uri, ContentValues values, OnWriteCompleteListener listener) {
+        enqueue(new Write(Write.INSERT, uri, new ContentValues(values), listener));
+    }
+
+    /**
+     * Queue an update. Consecutive updates of the same URI are merged while they wait.
+     */
+    public void update(Uri uri, ContentValues values, OnWriteCompleteListener listener) {
+        synchronized (this) {
+            if (mLastWrite != null && mLastWrite.mergeUpdate(uri, values, listener)) {
+                return;
+            }
+        }
+        enqueue(new Write(Write.UPDATE, uri, new ContentValues(values), listener));
+    }
+
+    /**
+     * Queue a delete of the pets at the given URI.
+     */
+    public void delete(Uri uri, OnWriteCompleteListener listener) {
+        enqueue(new Write(Write.DELETE, uri, null, listener));
+    }
+
+    private synchronized void enqueue(Write write) {
+        mLastWrite = write;
+        mExecutor.execute(write);
+    }
+
+    /**
+     * One queued write, and everyone waiting for its result.
+     */
+    private final class Write implements Runnable {
+
+        static final int INSERT = 0;
+        static final int UPDATE = 1;
+        static final int DELETE = 2;
+
+        private final int mType;
+        private final Uri mUri;
+        private final ContentValues mValues;
+        private final ArrayList<OnWriteCompleteListener> mListeners = new ArrayList<OnWriteCompleteListener>();
+
+        // Set once the write has been taken off the queue. Guarded by PetWriteQueue.this
+        private boolean mStarted;
+
+        Write(int type, Uri uri, ContentValues values, OnWriteCompleteListener listener) {
+            mType = type;
+            mUri = uri;
+            mValues = values;
+            if (listener != null) {
+                mListeners.add(listener);
+            }
+        }
+
+        /**
+         * Fold another update of the same URI into this one if it hasn't started yet.
+         * Must hold the PetWriteQueue lock.
+         */
+        boolean mergeUpdate(Uri uri, ContentValues values, OnWriteCompleteListener listener) {
+            if (mStarted || mType != UPDATE || !mUri.equals(uri)) {
+                return false;
+            }
+            mValues.putAll(values);
+            if (listener != null) {
+                mListeners.add(listener);
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            synchronized (PetWriteQueue.this) {
+                mStarted = true;
+            }
+
+            Uri newUri = null;
+            int rowsAffected = 0;
+            try {
+                switch (mType) {
+                    case INSERT:
+                        newUri = mContentResolver.insert(mUri, mValues);
+                        rowsAffected = newUri == null ? 0 : 1;
+                        break;
+                    case UPDATE:
+                        rowsAffected = mContentResolver.update(mUri, mValues, null, null);
+                        break;
+                    default:
+                        rowsAffected = mContentResolver.delete(mUri, null, null);
+                        break;
+                }
+            } catch (IllegalArgumentException e) {
+                // The provider rejected the values, report it as a failed write
+                Log.e(LOG_TAG, "Write to " + mUri + " failed", e);
+            } catch (SQLException e) {
+                // Disk full, constraint failed or database locked, report it as a failed write
+                // rather than crash the app once the editor is already gone
+                Log.e(LOG_TAG, "Write to " + mUri + " failed", e);
+            } catch (RuntimeException e) {
+                // Anything else the provider threw, e.g. from another process
+                Log.e(LOG_TAG, "Write to " + mUri + " failed", e);
+            }
+
+            // Report the result on the main thread
+            final Uri resultUri = newUri;
+            final int resultRows = rowsAffected;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (OnWriteCompleteListener listener : mListeners) {
+                        listener.onWriteComplete(resultUri, resultRows);
+                    }
+                }
+            });
+        }
+    }
+}
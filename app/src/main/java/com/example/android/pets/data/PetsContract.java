@@ -1,6 +1,7 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -22,6 +23,80 @@ public final class PetsContract {
     // Path for table to get from content URI
     public static final String PATH_PETS = "pets";
 
+    // Path for full text search over pets, under the pets path
+    public static final String PATH_SEARCH = "search";
+
+    // Path for the pet stats, under the pets path
+    public static final String PATH_STATS = "stats";
+
+    // Path for reading every pet as one file, under the pets path
+    public static final String PATH_EXPORT = "export";
+
+    // Path for writing a file of pets to add, under the pets path
+    public static final String PATH_IMPORT = "import";
+
+    // Path for the pets changed since a given change, under the pets path
+    public static final String PATH_CHANGES = "changes";
+
+    // Path for the photo of a pet, under the pet's own path
+    public static final String PATH_PHOTO = "photo";
+
+    // Query parameter for the sequence of the last change already seen. Defaults to 0 for every
+    // change still kept
+    public static final String QUERY_PARAM_SINCE = "since";
+
+    // Query parameter for the file format of an export or import, ndjson (the default) or csv
+    public static final String QUERY_PARAM_FORMAT = "format";
+
+    // File formats: one JSON object per pet and line, or comma separated values with a header line
+    public static final String FORMAT_NDJSON = "ndjson";
+    public static final String FORMAT_CSV = "csv";
+
+    // Query parameter for the text to search for. Every word matches as a prefix
+    public static final String QUERY_PARAM_SEARCH = "q";
+
+    // Query parameter for the number of rows in one page of pets
+    public static final String QUERY_PARAM_PAGE_SIZE = "page_size";
+
+    // Query parameter for the column pages are sorted by (_id, name, breed or weight). Defaults to
+    // _id. Names and breeds are sorted for the current locale, pets without a breed first
+    public static final String QUERY_PARAM_SORT_KEY = "sort_key";
+
+    // Query parameter for the sort key value of the last row on the previous page. Left out when
+    // that row has no breed
+    public static final String QUERY_PARAM_AFTER_KEY = "after_key";
+
+    // Query parameter for the _id of the last row on the previous page
+    public static final String QUERY_PARAM_AFTER_ID = "after_id";
+
+    // Query parameters filtering pets: only the given gender, only breeds starting with the given
+    // text in any case, and only weights in the given range, both ends included. See PetFilter
+    public static final String QUERY_PARAM_GENDER = "gender";
+    public static final String QUERY_PARAM_BREED = "breed";
+    public static final String QUERY_PARAM_MIN_WEIGHT = "min_weight";
+    public static final String QUERY_PARAM_MAX_WEIGHT = "max_weight";
+
+    // Query parameter for the site whose pets are read or written. Each site keeps its pets in its
+    // own database file. Defaults to SITE_MAIN. Querying pets of ALL_SITES reads every site at once
+    public static final String QUERY_PARAM_SITE = "site";
+
+    // The site of the original database, and the value that queries every site
+    public static final String SITE_MAIN = "main";
+    public static final String ALL_SITES = "*";
+
+    // Site names are lowercase letters, digits and underscores, as they are part of a file name
+    public static boolean isValidSite(String site) {
+        return site != null && site.matches("[a-z0-9_]+");
+    }
+
+    // URI for the given URI at the given site
+    public static Uri buildSiteUri(Uri uri, String site) {
+        return uri.buildUpon().appendQueryParameter(QUERY_PARAM_SITE, site).build();
+    }
+
+    // Method for ContentResolver.call to vacuum the database of one site, with the site as argument
+    public static final String METHOD_VACUUM_SITE = "vacuum_site";
+
     // Pet entry table
     public static final class PetEntry implements BaseColumns {
 
@@ -31,6 +106,20 @@ public final class PetsContract {
         // Full URI : content://com.example.android.pets/pets
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        // Search URI : content://com.example.android.pets/pets/search?q=tot
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        // Export URI : content://com.example.android.pets/pets/export?format=csv, opened for reading
+        public static final Uri EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        // Import URI : content://com.example.android.pets/pets/import?format=csv, opened for writing.
+        // Pets are added in batches as the file is written, with new ids
+        public static final Uri IMPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_IMPORT);
+
+        // MIME types of exported files
+        public static final String NDJSON_TYPE = "application/x-ndjson";
+        public static final String CSV_TYPE = "text/csv";
+
         // MIME type of the CONTENT URI for a list of pets
         public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
@@ -44,6 +133,16 @@ public final class PetsContract {
         public static final String COLUMN_PET_GENDER = "gender";
         public static final String COLUMN_PET_WEIGHT = "weight";
 
+        // File name of the pet's photo, null without one. Read the photo through buildPhotoUri(),
+        // and set it by writing there. The column itself can't be written
+        public static final String COLUMN_PET_PHOTO = "photo";
+
+        // MIME type of a pet's photo, stored as it was written
+        public static final String PHOTO_TYPE = "image/*";
+
+        // Site of each pet, only in queries of ALL_SITES, where the same _id can be at several sites
+        public static final String COLUMN_SITE = "site";
+
         // Possible genders
         public static final int GENDER_MALE = 1;
         public static final int GENDER_FEMALE = 2;
@@ -52,5 +151,185 @@ public final class PetsContract {
         public static boolean isValidGender(int gender) {
             return gender == GENDER_MALE || gender == GENDER_FEMALE || gender == GENDER_UNKNOWN;
         }
+
+        // URI of the photo of the pet with the given _id, to open for reading or writing. Only
+        // pets of the main site have photos
+        public static Uri buildPhotoUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon().appendPath(PATH_PHOTO).build();
+        }
+
+        // URI to export every pet in the given format
+        public static Uri buildExportUri(String format) {
+            return EXPORT_URI.buildUpon().appendQueryParameter(QUERY_PARAM_FORMAT, format).build();
+        }
+
+        // URI to import pets from a file in the given format
+        public static Uri buildImportUri(String format) {
+            return IMPORT_URI.buildUpon().appendQueryParameter(QUERY_PARAM_FORMAT, format).build();
+        }
+
+        // URI for pets whose name or breed match the given text, best matches first
+        public static Uri buildSearchUri(String text) {
+            return SEARCH_URI.buildUpon().appendQueryParameter(QUERY_PARAM_SEARCH, text).build();
+        }
+
+        // Columns a page of pets can be sorted by. They must be unique together with _id
+        public static boolean isValidSortKey(String column) {
+            return COLUMN_ID.equals(column) || COLUMN_PET_NAME.equals(column)
+                    || COLUMN_PET_BREED.equals(column) || COLUMN_PET_WEIGHT.equals(column);
+        }
+
+        // URI for the first page of pets sorted by the given column
+        public static Uri buildFirstPageUri(String sortKey, int pageSize) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_SORT_KEY, sortKey)
+                    .appendQueryParameter(QUERY_PARAM_PAGE_SIZE, String.valueOf(pageSize))
+                    .build();
+        }
+
+        // URI for the page of pets following the row with the given sort key value and _id
+        public static Uri buildNextPageUri(String sortKey, int pageSize, String afterKey, long afterId) {
+            Uri.Builder builder = buildFirstPageUri(sortKey, pageSize).buildUpon();
+
+            // Paging by _id alone does not need a separate sort key value
+            if (afterKey != null) {
+                builder.appendQueryParameter(QUERY_PARAM_AFTER_KEY, afterKey);
+            }
+            return builder.appendQueryParameter(QUERY_PARAM_AFTER_ID, String.valueOf(afterId)).build();
+        }
+    }
+
+    // Pet stats, kept up to date on every write so reading them costs the same for any number of pets.
+    // The first row is for all pets, followed by one row per gender and one row per breed
+    public static final class StatsEntry {
+
+        // Full URI : content://com.example.android.pets/pets/stats
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+
+        // MIME type of the stats list
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        // Columns. The key is the gender number or the breed, and null for all pets or no breed
+        public static final String COLUMN_GROUP = "stat_group";
+        public static final String COLUMN_KEY = "stat_key";
+        public static final String COLUMN_PET_COUNT = "pet_count";
+        public static final String COLUMN_TOTAL_WEIGHT = "total_weight";
+        public static final String COLUMN_AVERAGE_WEIGHT = "average_weight";
+
+        // Groups
+        public static final String GROUP_TOTAL = "total";
+        public static final String GROUP_GENDER = "gender";
+        public static final String GROUP_BREED = "breed";
+    }
+
+    // Pets changed after a given change, so a copy of the pets can be kept in sync without
+    // reading them all again. Each change has a sequence number, higher than any before it.
+    // Query buildChangesUri(since) with the highest sequence seen so far: there is one row per
+    // pet changed since, ordered by sequence, with the latest change and the pet's current values.
+    // Only the most recent changes are kept
+    public static final class ChangesEntry {
+
+        // Full URI : content://com.example.android.pets/pets/changes
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_CHANGES);
+
+        // MIME type of the changes list
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        // Columns. The pet columns are null for a deleted pet, and every column but the
+        // sequence is null for a clear
+        public static final String COLUMN_SEQUENCE = "sequence";
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_OPERATION = "operation";
+        public static final String COLUMN_PET_NAME = PetEntry.COLUMN_PET_NAME;
+        public static final String COLUMN_PET_BREED = PetEntry.COLUMN_PET_BREED;
+        public static final String COLUMN_PET_GENDER = PetEntry.COLUMN_PET_GENDER;
+        public static final String COLUMN_PET_WEIGHT = PetEntry.COLUMN_PET_WEIGHT;
+
+        // Operations. A clear means every earlier pet is gone: either all pets were deleted, or
+        // the changes asked for are no longer kept. Drop every pet, query them all again, then
+        // ask for the changes since the clear's sequence
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+        public static final String OPERATION_CLEAR = "clear";
+
+        public static Uri buildChangesUri(long since) {
+            return CONTENT_URI.buildUpon().appendQueryParameter(QUERY_PARAM_SINCE, String.valueOf(since)).build();
+        }
+    }
+
+    // Path for the provider's own latency and counter metrics
+    public static final String PATH_METRICS = "metrics";
+
+    // Path for the most recent slow calls, under the metrics path
+    public static final String PATH_SLOW_QUERIES = "slow_queries";
+
+    // Method for ContentResolver.call to change the slow call threshold, with the milliseconds as argument
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+    // Method for ContentResolver.call to change how long change notifications are merged after
+    // one is sent, with the milliseconds as argument. 0 sends every notification right away
+    public static final String METHOD_SET_NOTIFICATION_WINDOW = "set_notification_window";
+
+    // Provider metrics. Query CONTENT_URI for one row per operation and URI match, SLOW_QUERIES_URI
+    // for the slow call log, and delete CONTENT_URI to start over
+    public static final class MetricsEntry {
+
+        // Full URI : content://com.example.android.pets/metrics
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_METRICS);
+
+        // Slow calls URI : content://com.example.android.pets/metrics/slow_queries
+        public static final Uri SLOW_QUERIES_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SLOW_QUERIES);
+
+        // MIME type of the metrics and slow calls lists
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        // Metrics columns. Latencies are in microseconds
+        public static final String COLUMN_OPERATION = "operation";
+        public static final String COLUMN_URI_MATCH = "uri_match";
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_ERRORS = "errors";
+        public static final String COLUMN_ROWS = "rows";
+        public static final String COLUMN_P50_US = "p50_us";
+        public static final String COLUMN_P95_US = "p95_us";
+        public static final String COLUMN_P99_US = "p99_us";
+        public static final String COLUMN_MAX_US = "max_us";
+
+        public static final String[] COLUMNS = {
+                COLUMN_OPERATION, COLUMN_URI_MATCH, COLUMN_COUNT, COLUMN_ERRORS, COLUMN_ROWS,
+                COLUMN_P50_US, COLUMN_P95_US, COLUMN_P99_US, COLUMN_MAX_US
+        };
+
+        // Slow call columns, besides operation and rows. Time is in milliseconds since the epoch
+        public static final String COLUMN_TIME = "time";
+        public static final String COLUMN_URI = "uri";
+        public static final String COLUMN_SELECTION = "selection";
+        public static final String COLUMN_DURATION_MS = "duration_ms";
+
+        public static final String[] SLOW_QUERY_COLUMNS = {
+                COLUMN_TIME, COLUMN_OPERATION, COLUMN_URI, COLUMN_SELECTION, COLUMN_DURATION_MS, COLUMN_ROWS
+        };
+
+        // Operations. Rows are returned for queries and affected for writes. Query rows are
+        // counted when their cursor is closed, so slow queries are logged without them
+        public static final String OPERATION_QUERY = "query";
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_BULK_INSERT = "bulk_insert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+        public static final String OPERATION_APPLY_BATCH = "apply_batch";
+        public static final String OPERATION_EXPORT = "export";
+        public static final String OPERATION_IMPORT = "import";
+
+        // Row cache counters, reported in the count column
+        public static final String OPERATION_ROW_CACHE_HIT = "row_cache_hit";
+        public static final String OPERATION_ROW_CACHE_MISS = "row_cache_miss";
+        public static final String OPERATION_ROW_CACHE_EVICTION = "row_cache_eviction";
+
+        // Change notification counters, reported in the count column. Suppressed notifications
+        // were merged into others sent for the same burst of writes
+        public static final String OPERATION_NOTIFICATION_REQUESTED = "notification_requested";
+        public static final String OPERATION_NOTIFICATION_SENT = "notification_sent";
+        public static final String OPERATION_NOTIFICATION_SUPPRESSED = "notification_suppressed";
     }
 }
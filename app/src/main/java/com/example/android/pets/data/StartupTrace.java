@@ -0,0 +1,75 @@
+package com.example.android.pets.data;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Startup milestones, timed from process start. Each milestone is logged once per process and
+ * shows up in systrace as a marker named after it with its time, next to the sections wrapped
+ * in {@link #beginSection(String)} and {@link #endSection()}.
+ *
+ * Read the timings with: adb logcat -s StartupTrace
+ */
+public final class StartupTrace {
+
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    // Milestones already reported in this process
+    private static final Set<String> sReported = new HashSet<String>();
+
+    // SystemClock.elapsedRealtime() when the process started
+    private static long sProcessStartMs = -1;
+
+    // Constructor
+    private StartupTrace() { }
+
+    /**
+     * Remember when the process started. Called from the provider, which is created before any
+     * activity. Before API 24 the time of the first call stands in for the process start.
+     */
+    static synchronized void markProcessStart() {
+        if (sProcessStartMs != -1) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            sProcessStartMs = Process.getStartElapsedRealtime();
+        } else {
+            sProcessStartMs = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Report a milestone the first time it is reached in this process.
+     */
+    public static synchronized void mark(String milestone) {
+        if (sProcessStartMs == -1 || !sReported.add(milestone)) {
+            return;
+        }
+        long elapsed = SystemClock.elapsedRealtime() - sProcessStartMs;
+        Log.i(LOG_TAG, milestone + " at " + elapsed + " ms");
+
+        // An empty section works as a marker
+        TraceCompat.beginSection(milestone + " +" + elapsed + "ms");
+        TraceCompat.endSection();
+    }
+
+    /**
+     * Start a named section on the current thread.
+     */
+    public static void beginSection(String name) {
+        TraceCompat.beginSection(name);
+    }
+
+    /**
+     * End the last section started on the current thread.
+     */
+    public static void endSection() {
+        TraceCompat.endSection();
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.android.pets;
+
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of copying pets into snapshots and merging pages with changed and deleted pets.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetSnapshotTest {
+
+    private static final Map<Long, PetSnapshot> NO_CHANGES = Collections.emptyMap();
+    private static final Set<Long> NO_DELETES = Collections.emptySet();
+
+    @Test
+    public void fromCopiesEveryColumn() {
+        PetSnapshot snapshot = snapshot(
+                pet(1, "Tommy", "Pomeranian", PetEntry.GENDER_MALE, 4, "pet1_1.photo"),
+                pet(2, "Garfield", null, PetEntry.GENDER_UNKNOWN, 14, null));
+
+        assertEquals(2, snapshot.size());
+        assertEquals(1, snapshot.getId(0));
+        assertEquals("Tommy", snapshot.getName(0));
+        assertEquals("Pomeranian", snapshot.getBreed(0));
+        assertEquals(PetEntry.GENDER_MALE, snapshot.getGender(0));
+        assertEquals(4, snapshot.getWeight(0));
+        assertEquals("pet1_1.photo", snapshot.getPhoto(0));
+        assertEquals(2, snapshot.getId(1));
+        assertNull(snapshot.getBreed(1));
+        assertNull(snapshot.getPhoto(1));
+    }
+
+    @Test
+    public void fromWithoutPhotoColumnGivesNoPhotos() {
+        String[] columns = Arrays.copyOf(PetSnapshot.PROJECTION, PetSnapshot.PROJECTION.length - 1);
+        MatrixCursor cursor = new MatrixCursor(columns);
+        cursor.addRow(new Object[] { 1, "Tommy", "Pomeranian", PetEntry.GENDER_MALE, 4 });
+
+        PetSnapshot snapshot = PetSnapshot.from(cursor);
+        assertEquals(1, snapshot.size());
+        assertNull(snapshot.getPhoto(0));
+    }
+
+    @Test
+    public void fromEmptyCursorIsEmpty() {
+        assertSame(PetSnapshot.EMPTY, PetSnapshot.from(new MatrixCursor(PetSnapshot.PROJECTION)));
+    }
+
+    @Test
+    public void mergeJoinsPagesInOrder() {
+        PetSnapshot first = snapshot(pet(1, "A", "Tabby", 0, 1, null), pet(2, "B", "Tabby", 0, 2, null));
+        PetSnapshot second = snapshot(pet(3, "C", "Tabby", 0, 3, null));
+
+        PetSnapshot merged = PetSnapshot.merge(Arrays.asList(first, second), NO_CHANGES, NO_DELETES);
+        assertIds(merged, 1, 2, 3);
+        assertEquals("C", merged.getName(2));
+        assertEquals("Tabby", merged.getBreed(2));
+    }
+
+    @Test
+    public void mergeOfOnePageWithoutChangesIsThatPage() {
+        PetSnapshot page = snapshot(pet(1, "A", null, 0, 1, null));
+        assertSame(page, PetSnapshot.merge(Collections.singletonList(page), NO_CHANGES, NO_DELETES));
+    }
+
+    @Test
+    public void mergeReplacesChangedAndLeavesOutDeletedPets() {
+        PetSnapshot page = snapshot(
+                pet(1, "A", null, 0, 1, null),
+                pet(2, "B", null, 0, 2, null),
+                pet(3, "C", null, 0, 3, null));
+        Map<Long, PetSnapshot> changed = new HashMap<Long, PetSnapshot>();
+        changed.put(2L, snapshot(pet(2, "Bee", "Beagle", PetEntry.GENDER_FEMALE, 9, "pet2_1.photo")));
+        Set<Long> deleted = new HashSet<Long>(Collections.singleton(3L));
+
+        PetSnapshot merged = PetSnapshot.merge(Collections.singletonList(page), changed, deleted);
+        assertIds(merged, 1, 2);
+        assertEquals("Bee", merged.getName(1));
+        assertEquals("Beagle", merged.getBreed(1));
+        assertEquals(PetEntry.GENDER_FEMALE, merged.getGender(1));
+        assertEquals(9, merged.getWeight(1));
+        assertEquals("pet2_1.photo", merged.getPhoto(1));
+    }
+
+    @Test
+    public void mergeIgnoresChangesOfPetsNotInThePages() {
+        PetSnapshot page = snapshot(pet(1, "A", null, 0, 1, null));
+        Map<Long, PetSnapshot> changed = new HashMap<Long, PetSnapshot>();
+        changed.put(5L, snapshot(pet(5, "E", null, 0, 5, null)));
+
+        assertIds(PetSnapshot.merge(Collections.singletonList(page), changed, NO_DELETES), 1);
+    }
+
+    @Test
+    public void mergeOfEverythingDeletedIsEmpty() {
+        PetSnapshot page = snapshot(pet(1, "A", null, 0, 1, null));
+        Set<Long> deleted = new HashSet<Long>(Collections.singleton(1L));
+
+        assertSame(PetSnapshot.EMPTY, PetSnapshot.merge(Collections.singletonList(page), NO_CHANGES, deleted));
+    }
+
+    @Test
+    public void contentEqualsComparesShownValues() {
+        PetSnapshot snapshot = snapshot(
+                pet(1, "A", "Tabby", 0, 1, null),
+                pet(2, "A", "Tabby", 0, 1, null),
+                pet(3, "A", "Tabby", 0, 1, "pet3_1.photo"),
+                pet(4, "A", null, 0, 1, null));
+        PetSnapshot other = snapshot(pet(1, new String("A"), new String("Tabby"), 0, 1, null));
+
+        // Ids are not shown
+        assertTrue(snapshot.contentEquals(1, other, 0));
+        assertTrue(snapshot.contentEquals(0, other, 0));
+        assertFalse(snapshot.contentEquals(2, other, 0));
+        assertFalse(snapshot.contentEquals(3, other, 0));
+    }
+
+    private static Object[] pet(long id, String name, String breed, int gender, int weight, String photo) {
+        return new Object[] { id, name, breed, gender, weight, photo };
+    }
+
+    private static PetSnapshot snapshot(Object[]... pets) {
+        MatrixCursor cursor = new MatrixCursor(PetSnapshot.PROJECTION);
+        for (Object[] pet : pets) {
+            cursor.addRow(pet);
+        }
+        return PetSnapshot.from(cursor);
+    }
+
+    private static void assertIds(PetSnapshot snapshot, long... ids) {
+        assertEquals(ids.length, snapshot.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], snapshot.getId(i));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of sending a filter as URI query parameters and of the SQL it turns into.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetFilterTest {
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL(PetSchema.SQL_CREATE_PETS_TABLE);
+        insert("Toto", "Labrador", PetEntry.GENDER_MALE, 30);
+        insert("Luna", "labrador retriever", PetEntry.GENDER_FEMALE, 25);
+        insert("Tom", "Tabby", PetEntry.GENDER_MALE, 4);
+        insert("Max", null, PetEntry.GENDER_UNKNOWN, 12);
+        insert("Rex", "100% Lab", PetEntry.GENDER_MALE, 28);
+        insert("Spot", "Jack_Russell", PetEntry.GENDER_MALE, 7);
+        insert("Fido", "JackXRussell", PetEntry.GENDER_MALE, 8);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void uriRoundTrip() {
+        PetFilter filter = new PetFilter(PetEntry.GENDER_FEMALE, "Lab & Co", 2, 40);
+        Uri uri = filter.applyTo(PetEntry.CONTENT_URI);
+
+        assertEquals("Lab & Co", uri.getQueryParameter(PetsContract.QUERY_PARAM_BREED));
+        assertEquals(filter, PetFilter.fromUri(uri));
+        assertEquals(filter.hashCode(), PetFilter.fromUri(uri).hashCode());
+    }
+
+    @Test
+    public void emptyFilterLeavesUriAlone() {
+        assertTrue(PetFilter.NONE.isEmpty());
+        assertSame(PetEntry.CONTENT_URI, PetFilter.NONE.applyTo(PetEntry.CONTENT_URI));
+        assertEquals(PetFilter.NONE, PetFilter.fromUri(PetEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void partsAreCompared() {
+        PetFilter filter = new PetFilter(null, "Tabby", null, 10);
+        assertFalse(filter.isEmpty());
+        assertEquals(filter, new PetFilter(null, "Tabby", null, 10));
+        assertNotEquals(filter, new PetFilter(null, "Tabby", 10, null));
+        assertNotEquals(filter, new PetFilter(null, "tabby", null, 10));
+    }
+
+    @Test
+    public void invalidParametersAreRejected() {
+        assertInvalid(PetEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(PetsContract.QUERY_PARAM_MIN_WEIGHT, "heavy").build());
+        assertInvalid(PetEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(PetsContract.QUERY_PARAM_GENDER, "7").build());
+    }
+
+    @Test
+    public void selectionHasOneArgumentPerCondition() {
+        PetFilter filter = new PetFilter(PetEntry.GENDER_MALE, "Lab", 5, 30);
+
+        assertEquals("gender = ? AND breed >= ? COLLATE NOCASE AND breed < ? COLLATE NOCASE"
+                + " AND weight >= ? AND weight <= ?", filter.toSelection());
+        assertArrayEquals(new String[] { "1", "Lab", "Lab\uDBFF\uDFFF", "5", "30" }, filter.toSelectionArgs());
+    }
+
+    @Test
+    public void breedUsesTheNocaseIndex() {
+        for (String index : PetSchema.SQL_CREATE_NOCASE_INDEXES) {
+            mDatabase.execSQL(index);
+        }
+        PetFilter filter = new PetFilter(null, "lab", null, null);
+
+        Cursor plan = mDatabase.rawQuery("EXPLAIN QUERY PLAN SELECT " + PetEntry.COLUMN_PET_NAME + " FROM "
+                + PetEntry.TABLE_NAME + " WHERE " + filter.toSelection(), filter.toSelectionArgs());
+        try {
+            assertTrue(plan.moveToFirst());
+            String detail = plan.getString(plan.getColumnIndexOrThrow("detail"));
+            assertTrue(detail, detail.startsWith("SEARCH") && detail.contains("USING INDEX index_pets_breed_nocase"));
+        } finally {
+            plan.close();
+        }
+        assertEquals(Arrays.asList("Toto", "Luna"), names(filter));
+    }
+
+    @Test
+    public void breedMatchesPrefixesInAnyCase() {
+        assertEquals(Arrays.asList("Toto", "Luna"), names(new PetFilter(null, "lab", null, null)));
+        assertEquals(Arrays.asList("Toto", "Luna"), names(new PetFilter(null, "LABRADOR", null, null)));
+        assertEquals(Arrays.asList("Tom"), names(new PetFilter(null, "Tabby", null, null)));
+        assertEquals(Arrays.asList("Spot", "Fido"), names(new PetFilter(null, "JACK", null, null)));
+    }
+
+    @Test
+    public void breedWildcardsMatchLiterally() {
+        assertEquals(Arrays.asList("Rex"), names(new PetFilter(null, "100%", null, null)));
+        assertEquals(Arrays.asList("Spot"), names(new PetFilter(null, "jack_", null, null)));
+        assertTrue(names(new PetFilter(null, "%", null, null)).isEmpty());
+    }
+
+    @Test
+    public void conditionsAreCombined() {
+        assertEquals(Arrays.asList("Toto", "Rex"), names(new PetFilter(PetEntry.GENDER_MALE, null, 25, 30)));
+        assertEquals(Arrays.asList("Max", "Spot", "Fido"), names(new PetFilter(null, null, 7, 12)));
+    }
+
+    private void insert(String name, String breed, int gender, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        mDatabase.insert(PetEntry.TABLE_NAME, null, values);
+    }
+
+    // Names of the pets the filter lets through, in _id order
+    private List<String> names(PetFilter filter) {
+        List<String> names = new ArrayList<String>();
+        Cursor cursor = mDatabase.query(PetEntry.TABLE_NAME, new String[] { PetEntry.COLUMN_PET_NAME },
+                filter.toSelection(), filter.toSelectionArgs(), null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    private static void assertInvalid(Uri uri) {
+        try {
+            PetFilter.fromUri(uri);
+            fail("Read a filter from " + uri);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
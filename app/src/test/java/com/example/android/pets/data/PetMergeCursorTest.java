@@ -0,0 +1,146 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the order in which the pets of several sites are merged.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetMergeCursorTest {
+
+    private static final String[] COLUMNS = {PetEntry._ID, PetEntry.COLUMN_PET_NAME};
+    private static final String[] SITES = {"main", "shelter"};
+
+    @Test
+    public void mergesAscending() {
+        Cursor merged = merge(PetEntry._ID, false,
+                newCursor(1, "Fido", 4, "Max", 5, "Spot"),
+                newCursor(2, "Rex", 3, "Bella", 6, "Luna"));
+
+        assertEquals(6, merged.getCount());
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L), ids(merged));
+    }
+
+    @Test
+    public void mergesDescending() {
+        Cursor merged = merge(PetEntry._ID, true,
+                newCursor(5, "Spot", 4, "Max", 1, "Fido"),
+                newCursor(6, "Luna", 3, "Bella", 2, "Rex"));
+
+        assertEquals(Arrays.asList(6L, 5L, 4L, 3L, 2L, 1L), ids(merged));
+    }
+
+    @Test
+    public void addsTheSiteOfEachRow() {
+        Cursor merged = merge(PetEntry._ID, false, newCursor(1, "Fido", 3, "Max"), newCursor(2, "Rex"));
+        int siteColumn = merged.getColumnIndexOrThrow(PetEntry.COLUMN_SITE);
+
+        assertEquals(COLUMNS.length, siteColumn);
+        List<String> sites = new ArrayList<String>();
+        while (merged.moveToNext()) {
+            sites.add(merged.getString(siteColumn));
+            assertEquals(Cursor.FIELD_TYPE_STRING, merged.getType(siteColumn));
+        }
+        assertEquals(Arrays.asList("main", "shelter", "main"), sites);
+    }
+
+    @Test
+    public void sortsStringsForTheLocale() {
+        // In binary order "Bella" would come before "apple"
+        Cursor merged = merge(PetEntry.COLUMN_PET_NAME, false,
+                newCursor(1, "apple", 3, "cherry"),
+                newCursor(2, "Bella"));
+
+        assertEquals(Arrays.asList("apple", "Bella", "cherry"), names(merged));
+    }
+
+    @Test
+    public void sortsNullsFirstAscending() {
+        Cursor merged = merge(PetEntry.COLUMN_PET_NAME, false,
+                newCursor(1, "Fido", 3, "Max"),
+                newCursor(2, null, 4, "Rex"));
+
+        assertEquals(Arrays.asList(2L, 1L, 3L, 4L), ids(merged));
+    }
+
+    @Test
+    public void sortsNullsLastDescending() {
+        Cursor merged = merge(PetEntry.COLUMN_PET_NAME, true,
+                newCursor(3, "Max", 1, "Fido"),
+                newCursor(4, "Rex", 2, null));
+
+        assertEquals(Arrays.asList(4L, 3L, 1L, 2L), ids(merged));
+    }
+
+    @Test
+    public void equalRowsKeepTheOrderOfTheirSites() {
+        Cursor merged = merge(PetEntry.COLUMN_PET_NAME, false,
+                newCursor(1, "Max", 3, "Max"),
+                newCursor(2, "Max"));
+
+        assertEquals(Arrays.asList(1L, 3L, 2L), ids(merged));
+    }
+
+    @Test
+    public void mergesEmptySites() {
+        Cursor merged = merge(PetEntry._ID, false, newCursor(), newCursor(1, "Fido"));
+
+        assertEquals(Arrays.asList(1L), ids(merged));
+        assertEquals(0, merge(PetEntry._ID, false, newCursor(), newCursor()).getCount());
+    }
+
+    @Test
+    public void closeClosesEverySite() {
+        Cursor first = newCursor(1, "Fido");
+        Cursor second = newCursor(2, "Rex");
+        merge(PetEntry._ID, false, first, second).close();
+
+        assertTrue(first.isClosed());
+        assertTrue(second.isClosed());
+    }
+
+    // Cursor of the pets given as pairs of _id and name, already in order
+    private static Cursor newCursor(Object... values) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < values.length; i += 2) {
+            cursor.addRow(new Object[] {values[i], values[i + 1]});
+        }
+        return cursor;
+    }
+
+    private static Cursor merge(String sortColumn, boolean descending, Cursor first, Cursor second) {
+        return new PetMergeCursor(new Cursor[] {first, second}, SITES, sortColumn, descending);
+    }
+
+    private static List<Long> ids(Cursor cursor) {
+        List<Long> ids = new ArrayList<Long>();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry._ID)));
+        }
+        return ids;
+    }
+
+    private static List<String> names(Cursor cursor) {
+        List<String> names = new ArrayList<String>();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            names.add(cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME)));
+        }
+        return names;
+    }
+}
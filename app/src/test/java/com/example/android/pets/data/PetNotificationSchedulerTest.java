@@ -0,0 +1,171 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Tests of coalescing change notifications within a window. Robolectric's uptime clock only
+ * moves when the test moves it, so a window only ends when the test says so.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetNotificationSchedulerTest {
+
+    // Long enough that the scheduled flush never runs during a test unless it waits for it
+    private static final long LONG_WINDOW_MS = 60000;
+
+    private static final Uri PET_1 = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1);
+    private static final Uri PET_2 = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 2);
+    private static final Uri PET_3 = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 3);
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void firstNotificationIsSentRightAway() {
+        PetNotificationScheduler scheduler = newScheduler(LONG_WINDOW_MS);
+        scheduler.notifyChange(PET_1);
+
+        assertNotified(PET_1);
+        assertEquals(1, scheduler.sentCount());
+        assertEquals(0, scheduler.suppressedCount());
+    }
+
+    @Test
+    public void notificationsWithinTheWindowAreSentOnceEach() {
+        PetNotificationScheduler scheduler = newScheduler(LONG_WINDOW_MS);
+        scheduler.notifyChange(PET_1);
+        scheduler.notifyChange(PET_2);
+        scheduler.notifyChange(PET_3);
+        scheduler.notifyChange(PET_2);
+        assertNotified(PET_1);
+
+        scheduler.notifyNow(Collections.<Uri>emptyList());
+        assertNotified(PET_1, PET_2, PET_3);
+        assertEquals(4, scheduler.requestedCount());
+        assertEquals(3, scheduler.sentCount());
+        assertEquals(1, scheduler.suppressedCount());
+    }
+
+    @Test
+    public void notificationAfterAQuietWindowIsSentRightAway() {
+        PetNotificationScheduler scheduler = newScheduler(100);
+        scheduler.notifyChange(PET_1);
+        SystemClock.sleep(150);
+        scheduler.notifyChange(PET_2);
+
+        assertNotified(PET_1, PET_2);
+    }
+
+    @Test
+    public void manyPendingNotificationsCollapseToTheTable() {
+        PetNotificationScheduler scheduler = new PetNotificationScheduler(mResolver, PetEntry.CONTENT_URI, 2,
+                LONG_WINDOW_MS);
+        scheduler.notifyChange(PET_1);
+        scheduler.notifyChange(PET_1);
+        scheduler.notifyChange(PET_2);
+        scheduler.notifyChange(PET_3);
+        scheduler.notifyNow(Collections.<Uri>emptyList());
+
+        assertNotified(PET_1, PetEntry.CONTENT_URI);
+        assertEquals(2, scheduler.sentCount());
+    }
+
+    @Test
+    public void pendingTableNotificationCoversItsRows() {
+        PetNotificationScheduler scheduler = newScheduler(LONG_WINDOW_MS);
+        scheduler.notifyChange(PET_1);
+        scheduler.notifyChange(PET_2);
+        scheduler.notifyNow(Arrays.asList(PetEntry.CONTENT_URI, PET_3));
+
+        assertNotified(PET_1, PetEntry.CONTENT_URI);
+    }
+
+    @Test
+    public void notifyNowStartsANewWindow() {
+        PetNotificationScheduler scheduler = newScheduler(LONG_WINDOW_MS);
+        scheduler.notifyNow(Collections.singletonList(PET_1));
+        scheduler.notifyChange(PET_2);
+
+        assertNotified(PET_1);
+        assertEquals(1, scheduler.suppressedCount());
+    }
+
+    @Test
+    public void zeroWindowSendsEveryNotification() {
+        PetNotificationScheduler scheduler = newScheduler(0);
+        scheduler.notifyChange(PET_1);
+        scheduler.notifyChange(PET_1);
+        scheduler.notifyChange(PET_2);
+
+        assertNotified(PET_1, PET_1, PET_2);
+        assertEquals(0, scheduler.suppressedCount());
+    }
+
+    @Test
+    public void pendingNotificationsAreSentWhenTheWindowEnds() throws InterruptedException {
+        PetNotificationScheduler scheduler = newScheduler(50);
+        scheduler.notifyChange(PET_1);
+        scheduler.notifyChange(PET_2);
+        scheduler.notifyChange(PET_3);
+
+        // The flush runs on the scheduler's own thread, after the window in real time
+        long deadline = System.currentTimeMillis() + 5000;
+        while (notified().size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotified(PET_1, PET_2, PET_3);
+    }
+
+    @Test
+    public void negativeWindowIsRejected() {
+        try {
+            newScheduler(100).setWindowMs(-1);
+            fail("Accepted a negative window");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private PetNotificationScheduler newScheduler(long windowMs) {
+        return new PetNotificationScheduler(mResolver, PetEntry.CONTENT_URI, 10, windowMs);
+    }
+
+    private List<Uri> notified() {
+        List<Uri> uris = new ArrayList<Uri>();
+        ShadowContentResolver shadow = shadowOf(mResolver);
+        synchronized (shadow) {
+            for (ShadowContentResolver.NotifiedUri notifiedUri : shadow.getNotifiedUris()) {
+                uris.add(notifiedUri.uri);
+            }
+        }
+        return uris;
+    }
+
+    private void assertNotified(Uri... uris) {
+        assertEquals(Arrays.asList(uris), notified());
+    }
+}
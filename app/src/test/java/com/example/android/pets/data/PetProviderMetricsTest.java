@@ -0,0 +1,92 @@
+package com.example.android.pets.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the latency histogram behind the provider metrics.
+ */
+public class PetProviderMetricsTest {
+
+    @Test
+    public void smallValuesHaveTheirOwnBucket() {
+        for (long value = 0; value < 16; value++) {
+            int bucket = PetProviderMetrics.Stats.bucketOf(value);
+            assertEquals(value, bucket);
+            assertEquals(value, PetProviderMetrics.Stats.upperBoundOf(bucket));
+        }
+    }
+
+    @Test
+    public void bucketsAreWithinAnEighthOfTheirValues() {
+        int previousBucket = -1;
+        for (long value = 0; value < 1000000; value++) {
+            int bucket = PetProviderMetrics.Stats.bucketOf(value);
+            long upperBound = PetProviderMetrics.Stats.upperBoundOf(bucket);
+            assertTrue("Bucket of " + value + " ends below it", upperBound >= value);
+            assertTrue("Bucket of " + value + " ends at " + upperBound, upperBound - value <= value / 8);
+
+            // Buckets follow the values without gaps
+            assertTrue(bucket == previousBucket || bucket == previousBucket + 1);
+            previousBucket = bucket;
+        }
+    }
+
+    @Test
+    public void bucketEndsAreTheLastValueOfEachBucket() {
+        for (int bucket = 0; bucket < PetProviderMetrics.Stats.BUCKETS - 1; bucket++) {
+            long upperBound = PetProviderMetrics.Stats.upperBoundOf(bucket);
+            assertEquals(bucket, PetProviderMetrics.Stats.bucketOf(upperBound));
+            assertEquals(bucket + 1, PetProviderMetrics.Stats.bucketOf(upperBound + 1));
+        }
+    }
+
+    @Test
+    public void percentilesOfUniformLatencies() {
+        PetProviderMetrics.Stats stats = new PetProviderMetrics.Stats("query", "PETS");
+        for (long value = 1; value <= 1000; value++) {
+            stats.add(value, false, 1);
+        }
+
+        assertBetween(500, 500 + 500 / 8, stats.percentile(50));
+        assertBetween(950, 950 + 950 / 8, stats.percentile(95));
+        assertBetween(990, 1000, stats.percentile(99));
+        assertEquals(1000, stats.percentile(100));
+        assertEquals(1000, stats.count);
+        assertEquals(1000, stats.rows);
+        assertEquals(1000, stats.maxUs);
+    }
+
+    @Test
+    public void percentilesAreCappedByTheMaximum() {
+        PetProviderMetrics.Stats stats = new PetProviderMetrics.Stats("query", "PETS");
+        stats.add(1000, false, 0);
+
+        // The bucket of 1000 ends at 1023, but nothing took longer than 1000
+        assertEquals(1000, stats.percentile(50));
+        assertEquals(1000, stats.percentile(99));
+    }
+
+    @Test
+    public void emptyStatsHaveNoLatency() {
+        PetProviderMetrics.Stats stats = new PetProviderMetrics.Stats("query", "PETS");
+        assertEquals(0, stats.percentile(50));
+        assertEquals(0, stats.percentile(99));
+    }
+
+    @Test
+    public void hugeLatenciesGoInTheLastBucket() {
+        PetProviderMetrics.Stats stats = new PetProviderMetrics.Stats("update", "PET_ID");
+        stats.add(Long.MAX_VALUE / 2, true, 0);
+
+        assertEquals(1, stats.errors);
+        assertEquals(Long.MAX_VALUE / 2, stats.maxUs);
+        assertTrue(stats.percentile(99) > 0);
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " is not between " + min + " and " + max, actual >= min && actual <= max);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.pm.ProviderInfo;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of when {@link PetProvider} rewrites the catalog's cold start snapshot.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderSnapshotTest {
+
+    // How long a snapshot write queued in the background is given to show up
+    private static final long WAIT_MS = 2000;
+
+    private ContentResolver mResolver;
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = PetsContract.CONTENT_AUTHORITY;
+        Robolectric.buildContentProvider(PetProvider.class).create(info);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mFile = CatalogSnapshotFile.getFile(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void changeToTheMainSiteRewritesTheSnapshot() throws InterruptedException {
+        mResolver.insert(PetEntry.CONTENT_URI, newPet());
+
+        assertTrue(waitForFile());
+    }
+
+    @Test
+    public void changeToAnotherSiteLeavesTheSnapshot() throws InterruptedException {
+        mResolver.insert(PetsContract.buildSiteUri(PetEntry.CONTENT_URI, "shelter"), newPet());
+
+        assertFalse(waitForFile());
+    }
+
+    // Wait until the snapshot file exists. Return whether it does
+    private boolean waitForFile() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (!mFile.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        return mFile.exists();
+    }
+
+    private static ContentValues newPet() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Toto");
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+        return values;
+    }
+}
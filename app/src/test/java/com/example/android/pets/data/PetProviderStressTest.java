@@ -0,0 +1,476 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Concurrent load on {@link PetProvider}: reader and writer threads call it through the content
+ * resolver with a weighted mix of operations for a fixed time, on keys drawn uniformly or from
+ * a hot spot, so the row cache, the compiled statements, batches and the notification window are
+ * all in play. Prints the throughput and latency of each operation, and how many calls failed
+ * with SQLiteDatabaseLockedException. Fails if any call failed otherwise, or if a pet read by
+ * _id, possibly from the row cache, differs from the table afterwards.
+ *
+ * Robolectric runs every SQLite call on one thread of its own, so the numbers measure the
+ * provider's own locking and caching rather than SQLite's. For SQLite's file locking, see
+ * StressHarness in the benchmark module.
+ *
+ * Options are system properties, passed with e.g. ./gradlew test -Pstress.readers=8, and
+ * default to:
+ * <pre>
+ * stress.readers=4           reader threads
+ * stress.writers=2           writer threads
+ * stress.tableSize=1000      pets in the table to begin with, with ids 1 to tableSize
+ * stress.seconds=2           measured time, after the warmup
+ * stress.warmupSeconds=1     time run before measuring
+ * stress.distribution=uniform  uniform, or hotspot
+ * stress.hotKeys=0.1         with hotspot, the share of ids that are hot
+ * stress.hotOps=0.9          with hotspot, the share of calls on hot ids
+ * stress.mix=query_by_id:70,page:20,update:5,insert:2,delete:2,batch:1
+ *                            weight of each operation. Readers run the reads, writers the writes
+ * </pre>
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderStressTest {
+
+    // Rows in a page read by the page operation
+    private static final int PAGE_SIZE = 50;
+
+    // Updates in a batch run by the batch operation
+    private static final int BATCH_SIZE = 10;
+
+    private static final String[] PAGE_PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    /**
+     * The operations, each one provider call.
+     */
+    enum Operation {
+        QUERY_BY_ID(false),
+        PAGE(false),
+        UPDATE(true),
+        INSERT(true),
+        // Deletes a pet the same writer inserted, so the table keeps about its size
+        DELETE(true),
+        // Updates BATCH_SIZE pets in one applyBatch
+        BATCH(true);
+
+        final boolean write;
+
+        Operation(boolean write) {
+            this.write = write;
+        }
+
+        String label() {
+            return name().toLowerCase(Locale.US);
+        }
+    }
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = PetsContract.CONTENT_AUTHORITY;
+        Robolectric.buildContentProvider(PetProvider.class).create(info);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void mixedLoad() throws InterruptedException {
+        Options options = Options.fromSystemProperties();
+        System.out.println(options);
+
+        ContentValues[] pets = new ContentValues[options.tableSize];
+        for (int i = 0; i < pets.length; i++) {
+            pets[i] = newPet(i, i % 40);
+        }
+        assertEquals(options.tableSize, mResolver.bulkInsert(PetEntry.CONTENT_URI, pets));
+
+        List<Worker> workers = run(options);
+        report(options, workers);
+
+        for (Worker worker : workers) {
+            if (worker.mFirstError != null) {
+                throw new AssertionError("Call failed under load", worker.mFirstError);
+            }
+        }
+        for (Operation operation : Operation.values()) {
+            if (options.weights[operation.ordinal()] > 0 && (operation.write ? options.writers : options.readers) > 0) {
+                long count = 0;
+                for (Worker worker : workers) {
+                    count += worker.mStats[operation.ordinal()].count;
+                }
+                assertTrue("No " + operation.label() + " ran", count > 0);
+            }
+        }
+        assertCachedPetsMatchTable();
+    }
+
+    /**
+     * Run every thread until the end of the measured time. Return the results of each thread.
+     */
+    private List<Worker> run(Options options) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Worker> workers = new ArrayList<Worker>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < options.readers + options.writers; i++) {
+            boolean writer = i >= options.readers;
+            Worker worker = new Worker(options, writer, new Random(i), start);
+            workers.add(worker);
+            Thread thread = new Thread(worker, (writer ? "writer-" : "reader-") + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return workers;
+    }
+
+    /**
+     * Print one line per operation run, then the totals.
+     */
+    private static void report(Options options, List<Worker> workers) {
+        System.out.println(String.format(Locale.US, "%-12s %10s %10s %9s %9s %9s %8s %8s",
+                "operation", "calls", "calls/s", "p50 us", "p99 us", "max us", "locked", "errors"));
+
+        PetProviderMetrics.Stats total = new PetProviderMetrics.Stats("total", null);
+        long totalLocked = 0;
+        for (Operation operation : Operation.values()) {
+            PetProviderMetrics.Stats stats = new PetProviderMetrics.Stats(operation.label(), null);
+            long locked = 0;
+            for (Worker worker : workers) {
+                addStats(stats, worker.mStats[operation.ordinal()]);
+                locked += worker.mLocked[operation.ordinal()];
+            }
+            if (stats.count == 0 && locked == 0) {
+                continue;
+            }
+            printRow(stats, locked, options.seconds);
+            addStats(total, stats);
+            totalLocked += locked;
+        }
+        printRow(total, totalLocked, options.seconds);
+    }
+
+    private static void addStats(PetProviderMetrics.Stats stats, PetProviderMetrics.Stats other) {
+        for (int i = 0; i < PetProviderMetrics.Stats.BUCKETS; i++) {
+            stats.buckets[i] += other.buckets[i];
+        }
+        stats.count += other.count;
+        stats.errors += other.errors;
+        stats.rows += other.rows;
+        stats.maxUs = Math.max(stats.maxUs, other.maxUs);
+    }
+
+    private static void printRow(PetProviderMetrics.Stats stats, long locked, int seconds) {
+        long calls = stats.count - stats.errors;
+        System.out.println(String.format(Locale.US, "%-12s %10d %10d %9d %9d %9d %8d %8d",
+                stats.operation, calls, calls / seconds, stats.percentile(50), stats.percentile(99), stats.maxUs,
+                locked, stats.errors));
+    }
+
+    // Every pet read by _id, as the row cache may answer, must match the table as paged
+    private void assertCachedPetsMatchTable() {
+        Cursor table = mResolver.query(PetEntry.CONTENT_URI, PetRowCache.COLUMNS, null, null, PetEntry._ID);
+        try {
+            while (table.moveToNext()) {
+                long id = table.getLong(0);
+                Cursor pet = mResolver.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                        PetRowCache.COLUMNS, null, null, null);
+                try {
+                    assertTrue("Pet " + id + " missing", pet.moveToFirst());
+                    for (int i = 1; i < PetRowCache.COLUMNS.length; i++) {
+                        assertEquals("Pet " + id + " " + PetRowCache.COLUMNS[i], table.getString(i), pet.getString(i));
+                    }
+                } finally {
+                    pet.close();
+                }
+            }
+        } finally {
+            table.close();
+        }
+    }
+
+    private static ContentValues newPet(int number, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Pet " + number);
+        values.put(PetEntry.COLUMN_PET_BREED, "Breed " + (number % 100));
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        return values;
+    }
+
+    /**
+     * One thread of the load, with its own counters so threads never contend on them.
+     */
+    private final class Worker implements Runnable {
+
+        private final Options mOptions;
+        private final boolean mWriter;
+        private final Random mRandom;
+        private final CountDownLatch mStart;
+
+        // Pets this worker inserted and hasn't deleted yet, for deletes to take
+        private final ArrayList<Uri> mInserted = new ArrayList<Uri>();
+
+        // Per operation, indexed by ordinal
+        final PetProviderMetrics.Stats[] mStats = new PetProviderMetrics.Stats[Operation.values().length];
+        final long[] mLocked = new long[Operation.values().length];
+
+        // First call that failed other than on a lock
+        Throwable mFirstError;
+
+        Worker(Options options, boolean writer, Random random, CountDownLatch start) {
+            mOptions = options;
+            mWriter = writer;
+            mRandom = random;
+            mStart = start;
+            for (Operation operation : Operation.values()) {
+                mStats[operation.ordinal()] = new PetProviderMetrics.Stats(operation.label(), null);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                mStart.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long begin = System.nanoTime();
+            long measureFrom = begin + mOptions.warmupSeconds * 1000000000L;
+            long measureUntil = measureFrom + mOptions.seconds * 1000000000L;
+            while (true) {
+                Operation operation = mOptions.nextOperation(mRandom, mWriter);
+                if (operation == Operation.DELETE && mInserted.isEmpty()) {
+                    operation = Operation.INSERT;
+                }
+                long start = System.nanoTime();
+                if (start >= measureUntil) {
+                    return;
+                }
+
+                int rows = 0;
+                boolean locked = false;
+                boolean failed = false;
+                try {
+                    rows = execute(operation);
+                } catch (SQLiteDatabaseLockedException e) {
+                    locked = true;
+                } catch (RuntimeException e) {
+                    failed = true;
+                    if (mFirstError == null) {
+                        mFirstError = e;
+                    }
+                } catch (OperationApplicationException e) {
+                    failed = true;
+                    if (mFirstError == null) {
+                        mFirstError = e;
+                    }
+                }
+
+                if (start >= measureFrom) {
+                    if (locked) {
+                        mLocked[operation.ordinal()]++;
+                    } else {
+                        mStats[operation.ordinal()].add((System.nanoTime() - start) / 1000, failed, rows);
+                    }
+                }
+            }
+        }
+
+        // Run one call. Return the number of rows read or written
+        private int execute(Operation operation) throws OperationApplicationException {
+            long id = mOptions.nextId(mRandom);
+            Uri petUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+            switch (operation) {
+                case QUERY_BY_ID:
+                    return read(mResolver.query(petUri, PetRowCache.COLUMNS, null, null, null));
+                case PAGE:
+                    return read(mResolver.query(PetEntry.buildNextPageUri(PetEntry._ID, PAGE_SIZE, null, id - 1),
+                            PAGE_PROJECTION, null, null, null));
+                case UPDATE:
+                    return mResolver.update(petUri, newWeight(), null, null);
+                case INSERT:
+                    Uri newUri = mResolver.insert(PetEntry.CONTENT_URI, newPet(mRandom.nextInt(mOptions.tableSize),
+                            mRandom.nextInt(40) + 1));
+                    mInserted.add(newUri);
+                    return 1;
+                case DELETE:
+                    return mResolver.delete(mInserted.remove(mInserted.size() - 1), null, null);
+                default:
+                    ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+                    for (int i = 0; i < BATCH_SIZE; i++) {
+                        operations.add(ContentProviderOperation
+                                .newUpdate(ContentUris.withAppendedId(PetEntry.CONTENT_URI, mOptions.nextId(mRandom)))
+                                .withValues(newWeight())
+                                .withYieldAllowed(true)
+                                .build());
+                    }
+                    try {
+                        mResolver.applyBatch(PetsContract.CONTENT_AUTHORITY, operations);
+                    } catch (RemoteException e) {
+                        throw new IllegalStateException("Provider is in this process", e);
+                    }
+                    return BATCH_SIZE;
+            }
+        }
+
+        private ContentValues newWeight() {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_WEIGHT, mRandom.nextInt(40) + 1);
+            return values;
+        }
+
+        // Read every row of a cursor and close it
+        private int read(Cursor cursor) {
+            try {
+                int rows = 0;
+                while (cursor.moveToNext()) {
+                    cursor.getString(1);
+                    rows++;
+                }
+                return rows;
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * The options of a run, read from system properties.
+     */
+    private static final class Options {
+
+        int readers;
+        int writers;
+        int tableSize;
+        int seconds;
+        int warmupSeconds;
+        boolean hotspot;
+        double hotKeys;
+        double hotOps;
+
+        // Weight of each operation, indexed by ordinal, and the total weight of reads and writes
+        final int[] weights = new int[Operation.values().length];
+        int readWeight;
+        int writeWeight;
+
+        static Options fromSystemProperties() {
+            Options options = new Options();
+            options.readers = Integer.parseInt(property("readers", "4"));
+            options.writers = Integer.parseInt(property("writers", "2"));
+            options.tableSize = Integer.parseInt(property("tableSize", "1000"));
+            options.seconds = Integer.parseInt(property("seconds", "2"));
+            options.warmupSeconds = Integer.parseInt(property("warmupSeconds", "1"));
+            options.hotKeys = Double.parseDouble(property("hotKeys", "0.1"));
+            options.hotOps = Double.parseDouble(property("hotOps", "0.9"));
+
+            String distribution = property("distribution", "uniform");
+            if (!"uniform".equals(distribution) && !"hotspot".equals(distribution)) {
+                throw new IllegalArgumentException("Unknown distribution " + distribution);
+            }
+            options.hotspot = "hotspot".equals(distribution);
+
+            for (String entry : property("mix", "query_by_id:70,page:20,update:5,insert:2,delete:2,batch:1").split(",")) {
+                String[] parts = entry.trim().split(":");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid mix entry " + entry);
+                }
+                Operation operation = Operation.valueOf(parts[0].trim().toUpperCase(Locale.US));
+                int weight = Integer.parseInt(parts[1].trim());
+                options.weights[operation.ordinal()] = weight;
+                if (operation.write) {
+                    options.writeWeight += weight;
+                } else {
+                    options.readWeight += weight;
+                }
+            }
+
+            if (options.tableSize <= 0 || options.seconds <= 0) {
+                throw new IllegalArgumentException("Table size and seconds must be positive");
+            }
+            if ((options.readers > 0 && options.readWeight <= 0) || (options.writers > 0 && options.writeWeight <= 0)) {
+                throw new IllegalArgumentException("The mix needs reads for readers and writes for writers");
+            }
+            return options;
+        }
+
+        private static String property(String name, String defaultValue) {
+            return System.getProperty("stress." + name, defaultValue);
+        }
+
+        /**
+         * Pick a read for a reader or a write for a writer, by weight.
+         */
+        Operation nextOperation(Random random, boolean writer) {
+            int pick = random.nextInt(writer ? writeWeight : readWeight);
+            for (Operation operation : Operation.values()) {
+                if (operation.write != writer) {
+                    continue;
+                }
+                pick -= weights[operation.ordinal()];
+                if (pick < 0) {
+                    return operation;
+                }
+            }
+            throw new AssertionError();
+        }
+
+        /**
+         * Pick an id of the original table. With a hot spot, the hot ids are the lowest ones.
+         */
+        long nextId(Random random) {
+            if (hotspot && random.nextDouble() < hotOps) {
+                return random.nextInt(Math.max(1, (int) (tableSize * hotKeys))) + 1;
+            }
+            return random.nextInt(tableSize) + 1;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder mix = new StringBuilder();
+            for (Operation operation : Operation.values()) {
+                if (weights[operation.ordinal()] > 0) {
+                    mix.append(mix.length() == 0 ? "" : ",").append(operation.label()).append(':')
+                            .append(weights[operation.ordinal()]);
+                }
+            }
+            return "readers=" + readers + " writers=" + writers + " tableSize=" + tableSize
+                    + " seconds=" + seconds + " distribution=" + (hotspot ? "hotspot(" + hotKeys + "," + hotOps + ")" : "uniform")
+                    + " mix=" + mix;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of writing pets as NDJSON and CSV and reading them back.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetTransferTest {
+
+    @Test
+    public void csvExportQuotesFieldsThatNeedIt() throws IOException {
+        String csv = export(PetsContract.FORMAT_CSV,
+                pet(1, "Toto", "Terrier", 1, 7),
+                pet(2, "Mr \"Whiskers\", Jr", null, 0, 3),
+                pet(3, "Two\nLines", "Tabby", 2, 4));
+
+        assertEquals("_id,name,breed,gender,weight\n"
+                + "1,Toto,Terrier,1,7\n"
+                + "2,\"Mr \"\"Whiskers\"\", Jr\",,0,3\n"
+                + "3,\"Two\nLines\",Tabby,2,4\n", csv);
+    }
+
+    @Test
+    public void ndjsonExportWritesOneObjectPerLine() throws IOException {
+        String json = export(PetsContract.FORMAT_NDJSON,
+                pet(3, "Toto", "Terrier", 1, 7),
+                pet(4, "Say \"hi\"", null, 0, 0));
+
+        assertEquals("{\"_id\":3,\"name\":\"Toto\",\"breed\":\"Terrier\",\"gender\":1,\"weight\":7}\n"
+                + "{\"_id\":4,\"name\":\"Say \\\"hi\\\"\",\"breed\":null,\"gender\":0,\"weight\":0}\n", json);
+    }
+
+    @Test
+    public void csvRoundTrip() throws IOException {
+        assertRoundTrip(PetsContract.FORMAT_CSV);
+    }
+
+    @Test
+    public void ndjsonRoundTrip() throws IOException {
+        assertRoundTrip(PetsContract.FORMAT_NDJSON);
+    }
+
+    @Test
+    public void csvImportFindsColumnsByName() throws IOException {
+        List<ContentValues> pets = read(PetsContract.FORMAT_CSV,
+                "gender,name,extra\r\n1,Toto,x\r\n\r\n2,Luna,y\r\n");
+
+        assertEquals(2, pets.size());
+        assertEquals("Toto", pets.get(0).getAsString(PetEntry.COLUMN_PET_NAME));
+        assertEquals(Integer.valueOf(1), pets.get(0).getAsInteger(PetEntry.COLUMN_PET_GENDER));
+        assertFalse(pets.get(0).containsKey(PetEntry.COLUMN_PET_BREED));
+        assertFalse(pets.get(0).containsKey(PetEntry.COLUMN_PET_WEIGHT));
+        assertEquals("Luna", pets.get(1).getAsString(PetEntry.COLUMN_PET_NAME));
+    }
+
+    @Test
+    public void importLeavesOutIds() throws IOException {
+        List<ContentValues> pets = read(PetsContract.FORMAT_NDJSON,
+                "{\"_id\":9,\"name\":\"Toto\",\"gender\":1}\n\n");
+
+        assertEquals(1, pets.size());
+        assertFalse(pets.get(0).containsKey(PetEntry.COLUMN_ID));
+        assertFalse(pets.get(0).containsKey(PetEntry.COLUMN_PET_WEIGHT));
+    }
+
+    @Test
+    public void ndjsonImportKeepsNullsNull() throws IOException {
+        List<ContentValues> pets = read(PetsContract.FORMAT_NDJSON,
+                "{\"name\":\"Toto\",\"breed\":null,\"gender\":1,\"weight\":null}\n"
+                        + "{\"name\":null,\"gender\":0}\n");
+
+        assertEquals(2, pets.size());
+        assertTrue(pets.get(0).containsKey(PetEntry.COLUMN_PET_BREED));
+        assertNull(pets.get(0).getAsString(PetEntry.COLUMN_PET_BREED));
+        assertFalse(pets.get(0).containsKey(PetEntry.COLUMN_PET_WEIGHT));
+        assertTrue(pets.get(1).containsKey(PetEntry.COLUMN_PET_NAME));
+        assertNull(pets.get(1).getAsString(PetEntry.COLUMN_PET_NAME));
+        assertNull(pets.get(1).getAsString(PetEntry.COLUMN_PET_BREED));
+    }
+
+    @Test
+    public void csvImportNeedsNameAndGenderColumns() throws IOException {
+        assertInvalid(PetsContract.FORMAT_CSV, "name,breed\nToto,Terrier\n", "header");
+    }
+
+    @Test
+    public void csvImportRejectsUnterminatedQuotes() throws IOException {
+        assertInvalid(PetsContract.FORMAT_CSV, "name,gender\n\"Toto,1\n", "record 2");
+    }
+
+    @Test
+    public void csvImportRejectsBadNumbers() throws IOException {
+        assertInvalid(PetsContract.FORMAT_CSV, "name,gender\nToto,1\nLuna,female\n", "record 3");
+    }
+
+    @Test
+    public void ndjsonImportRejectsBadLines() throws IOException {
+        assertInvalid(PetsContract.FORMAT_NDJSON, "{\"name\":\"Toto\",\"gender\":1}\n{\"name\":\"Luna\"}\n", "line 2");
+    }
+
+    @Test
+    public void onlyNdjsonAndCsvAreValidFormats() {
+        assertTrue(PetTransfer.isValidFormat(PetsContract.FORMAT_NDJSON));
+        assertTrue(PetTransfer.isValidFormat(PetsContract.FORMAT_CSV));
+        assertFalse(PetTransfer.isValidFormat("xml"));
+        assertFalse(PetTransfer.isValidFormat(null));
+    }
+
+    private static void assertRoundTrip(String format) throws IOException {
+        Object[][] pets = {
+                pet(1, "Toto", "Terrier", 1, 7),
+                pet(2, "Mr \"Whiskers\", Jr", null, 0, 3),
+                pet(3, "Two\r\nLines", "Tabby, Grey", 2, 0),
+                pet(4, "Éclair", "", 0, 12)
+        };
+
+        List<ContentValues> read = read(format, export(format, pets));
+        assertEquals(pets.length, read.size());
+        for (int i = 0; i < pets.length; i++) {
+            ContentValues values = read.get(i);
+            assertEquals(pets[i][1], values.getAsString(PetEntry.COLUMN_PET_NAME));
+            assertEquals(pets[i][3], values.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+            assertEquals(pets[i][4], values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+        }
+
+        // An empty breed is no breed in CSV, but kept in NDJSON
+        assertNull(read.get(1).getAsString(PetEntry.COLUMN_PET_BREED));
+        assertEquals("Tabby, Grey", read.get(2).getAsString(PetEntry.COLUMN_PET_BREED));
+        assertEquals(PetsContract.FORMAT_CSV.equals(format) ? null : "",
+                read.get(3).getAsString(PetEntry.COLUMN_PET_BREED));
+    }
+
+    private static void assertInvalid(String format, String text, String where) throws IOException {
+        try {
+            read(format, text);
+            fail("Read invalid " + format + ": " + text);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(where));
+        }
+    }
+
+    private static Object[] pet(long id, String name, String breed, int gender, int weight) {
+        return new Object[] { id, name, breed, gender, weight };
+    }
+
+    private static String export(String format, Object[]... pets) throws IOException {
+        MatrixCursor cursor = new MatrixCursor(PetTransfer.COLUMNS);
+        for (Object[] pet : pets) {
+            cursor.addRow(pet);
+        }
+
+        StringWriter writer = new StringWriter();
+        PetTransfer.writeHeader(writer, format);
+        while (cursor.moveToNext()) {
+            PetTransfer.writePet(writer, cursor, format);
+        }
+        return writer.toString();
+    }
+
+    private static List<ContentValues> read(String format, String text) throws IOException {
+        PetTransfer.PetReader reader = new PetTransfer.PetReader(new BufferedReader(new StringReader(text)), format);
+        List<ContentValues> pets = new ArrayList<ContentValues>();
+        ContentValues values;
+        while ((values = reader.next()) != null) {
+            pets.add(values);
+        }
+        return pets;
+    }
+}
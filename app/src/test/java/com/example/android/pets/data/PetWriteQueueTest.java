@@ -0,0 +1,134 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.database.sqlite.SQLiteFullException;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of reporting writes the provider failed as failed writes, instead of crashing the app.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetWriteQueueTest {
+
+    private static final Uri PET_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, "1");
+
+    private PetWriteQueue mQueue;
+
+    @Before
+    public void setUp() {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = PetsContract.CONTENT_AUTHORITY;
+        Robolectric.buildContentProvider(FailingProvider.class).create(info);
+        mQueue = PetWriteQueue.getInstance(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void databaseErrorFailsTheInsert() throws InterruptedException {
+        Result result = new Result();
+        mQueue.insert(PetEntry.CONTENT_URI, new ContentValues(), result);
+
+        result.await();
+        assertNull(result.mNewUri);
+        assertEquals(0, result.mRowsAffected);
+    }
+
+    @Test
+    public void lockedDatabaseFailsTheUpdate() throws InterruptedException {
+        Result result = new Result();
+        mQueue.update(PET_URI, new ContentValues(), result);
+
+        result.await();
+        assertEquals(0, result.mRowsAffected);
+    }
+
+    @Test
+    public void otherProviderErrorFailsTheDelete() throws InterruptedException {
+        Result result = new Result();
+        mQueue.delete(PET_URI, result);
+
+        result.await();
+        assertEquals(0, result.mRowsAffected);
+    }
+
+    /**
+     * Result reported to a listener, on the main thread.
+     */
+    private static final class Result implements PetWriteQueue.OnWriteCompleteListener {
+
+        boolean mCompleted;
+        Uri mNewUri;
+        int mRowsAffected = -1;
+
+        @Override
+        public void onWriteComplete(Uri newUri, int rowsAffected) {
+            mCompleted = true;
+            mNewUri = newUri;
+            mRowsAffected = rowsAffected;
+        }
+
+        // Run what the write thread posts to the main thread until the result arrives
+        void await() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!mCompleted && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                ShadowLooper.runUiThreadTasks();
+            }
+            assertTrue("No result reported", mCompleted);
+        }
+    }
+
+    /**
+     * Provider whose every write fails the way a database can.
+     */
+    public static final class FailingProvider extends ContentProvider {
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            throw new SQLiteFullException("database or disk is full");
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            throw new SQLiteDatabaseLockedException("database is locked");
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            throw new IllegalStateException("provider died");
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+    }
+}
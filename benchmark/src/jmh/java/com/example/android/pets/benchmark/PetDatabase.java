@@ -0,0 +1,107 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * Desktop stand-in for PetDBHelper: a database file with the app's schema and pragmas, filled
+ * with a given number of pets whose ids run from 1 to that number.
+ */
+final class PetDatabase {
+
+    // Same statements PetProvider runs for the by-id paths
+    static final String SQL_QUERY_BY_ID =
+            "SELECT _id, name, breed, gender, weight, photo FROM pets WHERE _id=?";
+    static final String SQL_UPDATE_BY_ID = "UPDATE pets SET weight=? WHERE _id=?";
+    static final String SQL_DELETE_BY_ID = "DELETE FROM pets WHERE _id=?";
+
+    // Catalog queries
+    static final String SQL_QUERY_CATALOG = "SELECT _id, name, breed FROM pets ORDER BY _id";
+    static final String SQL_QUERY_PAGE = "SELECT _id, name, breed FROM pets WHERE _id > ? ORDER BY _id LIMIT ?";
+
+    // Removes pets added while measuring, to get back to the original table
+    static final String SQL_DELETE_ADDED = "DELETE FROM pets WHERE _id > ?";
+
+    private static final String[] BREEDS = { "Terrier", "Labrador", "Tabby", "Siamese", null };
+
+    private PetDatabase() { }
+
+    /**
+     * Create a new database file with the given number of pets.
+     */
+    static File create(int pets) throws IOException, SQLException {
+        File file = File.createTempFile("pets", ".db");
+        file.deleteOnExit();
+
+        try (Connection connection = open(file)) {
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : PetSchema.SQL_CREATE_SCHEMA) {
+                    statement.execute(desktopSql(sql));
+                }
+            }
+
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(PetSchema.SQL_INSERT_PET)) {
+                for (int id = 1; id <= pets; id++) {
+                    bindPet(insert, id, id);
+                    insert.executeUpdate();
+                }
+            }
+            connection.commit();
+        }
+        return file;
+    }
+
+    /**
+     * Return the statement as a desktop SQLite can run it. Android's LOCALIZED collation becomes
+     * NOCASE, which gives the locale indexes the same shape and about the same cost to maintain.
+     */
+    static String desktopSql(String sql) {
+        return sql.replace("COLLATE " + PetSchema.COLLATION_LOCALIZED, "COLLATE NOCASE");
+    }
+
+    /**
+     * Open a connection with the pragmas PetDBHelper sets.
+     */
+    static Connection open(File file) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode=WAL");
+            statement.execute("PRAGMA synchronous=NORMAL");
+            statement.execute("PRAGMA wal_autocheckpoint=" + PetSchema.WAL_AUTOCHECKPOINT_PAGES);
+            statement.execute("PRAGMA journal_size_limit=" + PetSchema.WAL_SIZE_LIMIT_BYTES);
+
+            // Android waits for locks held by other connections instead of failing right away
+            statement.execute("PRAGMA busy_timeout=5000");
+        }
+        return connection;
+    }
+
+    /**
+     * Bind pet number n to {@link PetSchema#SQL_INSERT_PET}. An id of 0 lets SQLite pick one.
+     */
+    static void bindPet(PreparedStatement insert, long id, int n) throws SQLException {
+        if (id == 0) {
+            insert.setNull(1, Types.INTEGER);
+        } else {
+            insert.setLong(1, id);
+        }
+        insert.setString(2, "Pet " + n);
+        String breed = BREEDS[n % BREEDS.length];
+        if (breed == null) {
+            insert.setNull(3, Types.VARCHAR);
+        } else {
+            insert.setString(3, breed);
+        }
+        insert.setInt(4, n % 3);
+        insert.setInt(5, n % 40 + 1);
+    }
+}
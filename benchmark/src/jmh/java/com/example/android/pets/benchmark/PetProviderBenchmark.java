@@ -0,0 +1,162 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetSchema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of each PetProvider database path at several table sizes. Each write runs in its own
+ * transaction like a single provider call, except the bulk insert which mirrors bulkInsert.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PetProviderBenchmark {
+
+    // Pets per bulk insert
+    private static final int BULK_SIZE = 1000;
+
+    @Param({ "1000", "10000", "100000" })
+    public int tableSize;
+
+    private File mFile;
+    private Connection mConnection;
+    private PreparedStatement mInsert;
+    private PreparedStatement mQueryById;
+    private PreparedStatement mQueryCatalog;
+    private PreparedStatement mQueryPage;
+    private PreparedStatement mUpdateById;
+    private PreparedStatement mDeleteById;
+    private PreparedStatement mDeleteAdded;
+
+    private final Random mRandom = new Random(42);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mFile = PetDatabase.create(tableSize);
+        mConnection = PetDatabase.open(mFile);
+        mInsert = mConnection.prepareStatement(PetSchema.SQL_INSERT_PET);
+        mQueryById = mConnection.prepareStatement(PetDatabase.SQL_QUERY_BY_ID);
+        mQueryCatalog = mConnection.prepareStatement(PetDatabase.SQL_QUERY_CATALOG);
+        mQueryPage = mConnection.prepareStatement(PetDatabase.SQL_QUERY_PAGE);
+        mUpdateById = mConnection.prepareStatement(PetDatabase.SQL_UPDATE_BY_ID);
+        mDeleteById = mConnection.prepareStatement(PetDatabase.SQL_DELETE_BY_ID);
+        mDeleteAdded = mConnection.prepareStatement(PetDatabase.SQL_DELETE_ADDED);
+    }
+
+    // Inserts grow the table, so shrink it back before each iteration
+    @Setup(Level.Iteration)
+    public void resetTable() throws SQLException {
+        mDeleteAdded.setLong(1, tableSize);
+        mDeleteAdded.executeUpdate();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        mConnection.close();
+        mFile.delete();
+    }
+
+    private long randomId() {
+        return mRandom.nextInt(tableSize) + 1;
+    }
+
+    @Benchmark
+    public int singleInsert() throws SQLException {
+        PetDatabase.bindPet(mInsert, 0, mRandom.nextInt(tableSize));
+        return mInsert.executeUpdate();
+    }
+
+    // Time per pet, to compare with singleInsert
+    @Benchmark
+    @OperationsPerInvocation(BULK_SIZE)
+    public void bulkInsert() throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < BULK_SIZE; i++) {
+                PetDatabase.bindPet(mInsert, 0, i);
+                mInsert.executeUpdate();
+            }
+            mConnection.commit();
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    @Benchmark
+    public void queryById(Blackhole blackhole) throws SQLException {
+        mQueryById.setLong(1, randomId());
+        try (ResultSet row = mQueryById.executeQuery()) {
+            if (row.next()) {
+                blackhole.consume(row.getLong(1));
+                blackhole.consume(row.getString(2));
+                blackhole.consume(row.getString(3));
+                blackhole.consume(row.getInt(4));
+                blackhole.consume(row.getInt(5));
+            }
+        }
+    }
+
+    // Whole catalog, as the list loaded it before paging
+    @Benchmark
+    public void fullScan(Blackhole blackhole) throws SQLException {
+        try (ResultSet rows = mQueryCatalog.executeQuery()) {
+            while (rows.next()) {
+                blackhole.consume(rows.getLong(1));
+                blackhole.consume(rows.getString(2));
+                blackhole.consume(rows.getString(3));
+            }
+        }
+    }
+
+    // One catalog page starting at a random pet
+    @Benchmark
+    public void keysetPage(Blackhole blackhole) throws SQLException {
+        mQueryPage.setLong(1, randomId());
+        mQueryPage.setInt(2, 50);
+        try (ResultSet rows = mQueryPage.executeQuery()) {
+            while (rows.next()) {
+                blackhole.consume(rows.getLong(1));
+                blackhole.consume(rows.getString(2));
+                blackhole.consume(rows.getString(3));
+            }
+        }
+    }
+
+    @Benchmark
+    public int updateById() throws SQLException {
+        mUpdateById.setInt(1, mRandom.nextInt(40) + 1);
+        mUpdateById.setLong(2, randomId());
+        return mUpdateById.executeUpdate();
+    }
+
+    // Deletes a pet and puts it back, so the table keeps its size
+    @Benchmark
+    public int deleteById() throws SQLException {
+        long id = randomId();
+        mDeleteById.setLong(1, id);
+        int deleted = mDeleteById.executeUpdate();
+        PetDatabase.bindPet(mInsert, id, (int) id);
+        mInsert.executeUpdate();
+        return deleted;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetSchema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of by-id reads while another connection keeps importing pets, against the same reads
+ * with no writer. With write-ahead logging the two should be close.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadUnderWriteBenchmark {
+
+    // Pets per import transaction
+    private static final int IMPORT_SIZE = 100;
+
+    /**
+     * The shared database file.
+     */
+    @State(Scope.Benchmark)
+    public static class Database {
+
+        @Param({ "10000", "100000" })
+        public int tableSize;
+
+        File file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            file = PetDatabase.create(tableSize);
+        }
+
+        // The writer grows the table, so shrink it back before each iteration
+        @Setup(Level.Iteration)
+        public void resetTable() throws SQLException {
+            try (Connection connection = PetDatabase.open(file);
+                 PreparedStatement deleteAdded = connection.prepareStatement(PetDatabase.SQL_DELETE_ADDED)) {
+                deleteAdded.setLong(1, tableSize);
+                deleteAdded.executeUpdate();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    /**
+     * One connection per thread, like the reader and writer connections of Android's pool.
+     */
+    @State(Scope.Thread)
+    public static class Session {
+
+        Connection connection;
+        PreparedStatement queryById;
+        PreparedStatement insert;
+        final Random random = new Random();
+
+        @Setup(Level.Trial)
+        public void setUp(Database database) throws SQLException {
+            connection = PetDatabase.open(database.file);
+            queryById = connection.prepareStatement(PetDatabase.SQL_QUERY_BY_ID);
+            insert = connection.prepareStatement(PetSchema.SQL_INSERT_PET);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws SQLException {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    @Group("readUnderWrite")
+    @GroupThreads(3)
+    public void read(Database database, Session session, Blackhole blackhole) throws SQLException {
+        readPet(database, session, blackhole);
+    }
+
+    @Benchmark
+    @Group("readUnderWrite")
+    @GroupThreads(1)
+    public void write(Session session) throws SQLException {
+        session.connection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < IMPORT_SIZE; i++) {
+                PetDatabase.bindPet(session.insert, 0, i);
+                session.insert.executeUpdate();
+            }
+            session.connection.commit();
+        } finally {
+            session.connection.setAutoCommit(true);
+        }
+    }
+
+    // Baseline: the same readers without a writer
+    @Benchmark
+    @Group("readAlone")
+    @GroupThreads(3)
+    public void readAlone(Database database, Session session, Blackhole blackhole) throws SQLException {
+        readPet(database, session, blackhole);
+    }
+
+    private static void readPet(Database database, Session session, Blackhole blackhole) throws SQLException {
+        session.queryById.setLong(1, session.random.nextInt(database.tableSize) + 1);
+        try (ResultSet row = session.queryById.executeQuery()) {
+            if (row.next()) {
+                blackhole.consume(row.getString(2));
+            }
+        }
+    }
+}
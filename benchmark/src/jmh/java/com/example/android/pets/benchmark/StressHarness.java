@@ -0,0 +1,514 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetSchema;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent load on the pets database: reader and writer threads run a weighted mix of the
+ * PetProvider database paths for a fixed time, on keys drawn uniformly or from a hot spot. Prints
+ * the throughput and latency of each operation, and how many calls failed on a lock.
+ *
+ * Like PetProvider, writers share one connection by default and wait for it in turn, the way
+ * Android's connection pool hands out its single primary connection. With sharedWriter=false
+ * each writer has its own connection, so writers wait on SQLite's file lock instead and can
+ * time out with SQLITE_BUSY, which Android reports as SQLiteDatabaseLockedException.
+ *
+ * This runs the provider's SQL only. PetProviderStressTest in the app's unit tests runs the same
+ * kind of load through PetProvider itself, caches and notifications included.
+ *
+ * Options are system properties, e.g. -Dstress.readers=8, and default to:
+ * <pre>
+ * stress.readers=4           reader threads
+ * stress.writers=1           writer threads
+ * stress.tableSize=10000     pets in the table, with ids 1 to tableSize
+ * stress.seconds=10          measured time, after the warmup
+ * stress.warmupSeconds=2     time run before measuring
+ * stress.distribution=uniform  uniform, or hotspot
+ * stress.hotKeys=0.1         with hotspot, the share of ids that are hot
+ * stress.hotOps=0.9          with hotspot, the share of calls on hot ids
+ * stress.mix=query_by_id:70,page:20,update:6,insert:2,delete:2
+ *                            weight of each operation. Readers run the reads, writers the writes
+ * stress.sharedWriter=true   whether writers share one connection
+ * stress.busyTimeoutMs=5000  how long a connection waits for a lock before SQLITE_BUSY
+ * </pre>
+ */
+public final class StressHarness {
+
+    // SQLite result codes of a lock that could not be taken in time
+    private static final int SQLITE_BUSY = 5;
+    private static final int SQLITE_LOCKED = 6;
+
+    // Rows in a page read by the page operation
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * The operations, each run the way PetProvider runs it: one transaction per call.
+     */
+    enum Operation {
+        QUERY_BY_ID(false),
+        PAGE(false),
+        UPDATE(true),
+        INSERT(true),
+        // Deletes a pet and puts it back in the same transaction, so the table keeps its size
+        DELETE(true);
+
+        final boolean write;
+
+        Operation(boolean write) {
+            this.write = write;
+        }
+
+        String label() {
+            return name().toLowerCase(Locale.US);
+        }
+    }
+
+    private StressHarness() { }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.fromSystemProperties();
+        System.out.println(options);
+
+        File file = PetDatabase.create(options.tableSize);
+        try {
+            report(options, run(options, file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Run every thread until the end of the measured time. Return the results of each thread.
+     */
+    private static List<Worker> run(Options options, File file) throws Exception {
+        long start = System.nanoTime();
+        long measureFrom = start + options.warmupSeconds * 1000000000L;
+        long measureUntil = measureFrom + options.seconds * 1000000000L;
+
+        // The one writer connection and the lock writers take turns on
+        Connection sharedConnection = null;
+        ReentrantLock writeLock = null;
+        if (options.sharedWriter && options.writers > 0) {
+            sharedConnection = open(options, file);
+            writeLock = new ReentrantLock(true);
+        }
+
+        List<Worker> workers = new ArrayList<Worker>();
+        List<Connection> connections = new ArrayList<Connection>();
+        try {
+            for (int i = 0; i < options.readers + options.writers; i++) {
+                boolean writer = i >= options.readers;
+                Connection connection = writer && sharedConnection != null ? sharedConnection : open(options, file);
+                if (connection != sharedConnection) {
+                    connections.add(connection);
+                }
+                workers.add(new Worker(options, writer, connection, writer ? writeLock : null,
+                        new Random(i), measureFrom, measureUntil));
+            }
+
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < workers.size(); i++) {
+                Thread thread = new Thread(workers.get(i), (workers.get(i).mWriter ? "writer-" : "reader-") + i);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+            if (sharedConnection != null) {
+                sharedConnection.close();
+            }
+        }
+        return workers;
+    }
+
+    private static Connection open(Options options, File file) throws SQLException {
+        Connection connection = PetDatabase.open(file);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA busy_timeout=" + options.busyTimeoutMs);
+        }
+        return connection;
+    }
+
+    /**
+     * Print one line per operation run, then the totals.
+     */
+    private static void report(Options options, List<Worker> workers) {
+        System.out.println(String.format(Locale.US, "%-12s %10s %10s %9s %9s %9s %8s %8s",
+                "operation", "calls", "calls/s", "p50 us", "p99 us", "max us", "busy", "errors"));
+
+        Latencies total = new Latencies();
+        long totalBusy = 0;
+        long totalErrors = 0;
+        for (Operation operation : Operation.values()) {
+            Latencies latencies = new Latencies();
+            long busy = 0;
+            long errors = 0;
+            for (Worker worker : workers) {
+                latencies.add(worker.mLatencies[operation.ordinal()]);
+                busy += worker.mBusy[operation.ordinal()];
+                errors += worker.mErrors[operation.ordinal()];
+            }
+            if (latencies.count == 0 && busy == 0 && errors == 0) {
+                continue;
+            }
+            printRow(operation.label(), latencies, busy, errors, options.seconds);
+            total.add(latencies);
+            totalBusy += busy;
+            totalErrors += errors;
+        }
+        printRow("total", total, totalBusy, totalErrors, options.seconds);
+    }
+
+    private static void printRow(String label, Latencies latencies, long busy, long errors, int seconds) {
+        System.out.println(String.format(Locale.US, "%-12s %10d %10d %9d %9d %9d %8d %8d",
+                label, latencies.count, latencies.count / seconds, latencies.percentile(50),
+                latencies.percentile(99), latencies.maxUs, busy, errors));
+    }
+
+    /**
+     * One thread of the load, with its own counters so threads never contend on them.
+     */
+    private static final class Worker implements Runnable {
+
+        private final Options mOptions;
+        private final boolean mWriter;
+        private final Connection mConnection;
+        private final ReentrantLock mWriteLock;
+        private final Random mRandom;
+        private final long mMeasureFrom;
+        private final long mMeasureUntil;
+
+        private PreparedStatement mQueryById;
+        private PreparedStatement mQueryPage;
+        private PreparedStatement mUpdateById;
+        private PreparedStatement mInsert;
+        private PreparedStatement mDeleteById;
+
+        // Per operation, indexed by ordinal
+        final Latencies[] mLatencies = new Latencies[Operation.values().length];
+        final long[] mBusy = new long[Operation.values().length];
+        final long[] mErrors = new long[Operation.values().length];
+
+        Worker(Options options, boolean writer, Connection connection, ReentrantLock writeLock,
+               Random random, long measureFrom, long measureUntil) throws SQLException {
+            mOptions = options;
+            mWriter = writer;
+            mConnection = connection;
+            mWriteLock = writeLock;
+            mRandom = random;
+            mMeasureFrom = measureFrom;
+            mMeasureUntil = measureUntil;
+
+            prepareStatements();
+            for (int i = 0; i < mLatencies.length; i++) {
+                mLatencies[i] = new Latencies();
+            }
+        }
+
+        private void prepareStatements() throws SQLException {
+            mQueryById = mConnection.prepareStatement(PetDatabase.SQL_QUERY_BY_ID);
+            mQueryPage = mConnection.prepareStatement(PetDatabase.SQL_QUERY_PAGE);
+            mUpdateById = mConnection.prepareStatement(PetDatabase.SQL_UPDATE_BY_ID);
+            mInsert = mConnection.prepareStatement(PetSchema.SQL_INSERT_PET);
+            mDeleteById = mConnection.prepareStatement(PetDatabase.SQL_DELETE_BY_ID);
+        }
+
+        // The JDBC driver leaves a statement that failed unusable, so compile them all again
+        private void recover() {
+            try {
+                mQueryById.close();
+                mQueryPage.close();
+                mUpdateById.close();
+                mInsert.close();
+                mDeleteById.close();
+                prepareStatements();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Cannot prepare statements again", e);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Operation operation = mOptions.nextOperation(mRandom, mWriter);
+                long start = System.nanoTime();
+                if (start >= mMeasureUntil) {
+                    return;
+                }
+
+                boolean busy = false;
+                boolean failed = false;
+                if (mWriteLock != null) {
+                    mWriteLock.lock();
+                }
+                try {
+                    execute(operation);
+                } catch (SQLException e) {
+                    if (isBusy(e)) {
+                        busy = true;
+                    } else {
+                        failed = true;
+                    }
+                    recover();
+                } finally {
+                    if (mWriteLock != null) {
+                        mWriteLock.unlock();
+                    }
+                }
+
+                // The latency includes any wait for the writer connection, as on Android
+                if (start >= mMeasureFrom) {
+                    if (busy) {
+                        mBusy[operation.ordinal()]++;
+                    } else if (failed) {
+                        mErrors[operation.ordinal()]++;
+                    } else {
+                        mLatencies[operation.ordinal()].record((System.nanoTime() - start) / 1000);
+                    }
+                }
+            }
+        }
+
+        private void execute(Operation operation) throws SQLException {
+            long id = mOptions.nextId(mRandom);
+            switch (operation) {
+                case QUERY_BY_ID:
+                    mQueryById.setLong(1, id);
+                    try (ResultSet row = mQueryById.executeQuery()) {
+                        if (row.next()) {
+                            row.getString(2);
+                        }
+                    }
+                    break;
+                case PAGE:
+                    mQueryPage.setLong(1, id);
+                    mQueryPage.setInt(2, PAGE_SIZE);
+                    try (ResultSet rows = mQueryPage.executeQuery()) {
+                        while (rows.next()) {
+                            rows.getString(2);
+                        }
+                    }
+                    break;
+                case UPDATE:
+                    mUpdateById.setInt(1, mRandom.nextInt(40) + 1);
+                    mUpdateById.setLong(2, id);
+                    mUpdateById.executeUpdate();
+                    break;
+                case INSERT:
+                    PetDatabase.bindPet(mInsert, 0, mRandom.nextInt(mOptions.tableSize));
+                    mInsert.executeUpdate();
+                    break;
+                case DELETE:
+                    mConnection.setAutoCommit(false);
+                    try {
+                        mDeleteById.setLong(1, id);
+                        mDeleteById.executeUpdate();
+                        PetDatabase.bindPet(mInsert, id, (int) id);
+                        mInsert.executeUpdate();
+                        mConnection.commit();
+                    } catch (SQLException e) {
+                        mConnection.rollback();
+                        throw e;
+                    } finally {
+                        mConnection.setAutoCommit(true);
+                    }
+                    break;
+            }
+        }
+
+        // Whether the call gave up waiting for a lock held by another connection
+        private static boolean isBusy(SQLException e) {
+            int code = e.getErrorCode() & 0xff;
+            String message = String.valueOf(e.getMessage());
+            return code == SQLITE_BUSY || code == SQLITE_LOCKED
+                    || message.contains("SQLITE_BUSY") || message.contains("SQLITE_LOCKED");
+        }
+    }
+
+    /**
+     * The options of a run, read from system properties.
+     */
+    private static final class Options {
+
+        int readers;
+        int writers;
+        int tableSize;
+        int seconds;
+        int warmupSeconds;
+        boolean hotspot;
+        double hotKeys;
+        double hotOps;
+        boolean sharedWriter;
+        int busyTimeoutMs;
+
+        // Weight of each operation, indexed by ordinal, and the total weight of reads and writes
+        final int[] weights = new int[Operation.values().length];
+        int readWeight;
+        int writeWeight;
+
+        static Options fromSystemProperties() {
+            Options options = new Options();
+            options.readers = Integer.parseInt(property("readers", "4"));
+            options.writers = Integer.parseInt(property("writers", "1"));
+            options.tableSize = Integer.parseInt(property("tableSize", "10000"));
+            options.seconds = Integer.parseInt(property("seconds", "10"));
+            options.warmupSeconds = Integer.parseInt(property("warmupSeconds", "2"));
+            options.hotKeys = Double.parseDouble(property("hotKeys", "0.1"));
+            options.hotOps = Double.parseDouble(property("hotOps", "0.9"));
+            options.sharedWriter = Boolean.parseBoolean(property("sharedWriter", "true"));
+            options.busyTimeoutMs = Integer.parseInt(property("busyTimeoutMs", "5000"));
+
+            String distribution = property("distribution", "uniform");
+            if (!"uniform".equals(distribution) && !"hotspot".equals(distribution)) {
+                throw new IllegalArgumentException("Unknown distribution " + distribution);
+            }
+            options.hotspot = "hotspot".equals(distribution);
+
+            for (String entry : property("mix", "query_by_id:70,page:20,update:6,insert:2,delete:2").split(",")) {
+                String[] parts = entry.trim().split(":");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid mix entry " + entry);
+                }
+                Operation operation = Operation.valueOf(parts[0].trim().toUpperCase(Locale.US));
+                int weight = Integer.parseInt(parts[1].trim());
+                options.weights[operation.ordinal()] = weight;
+                if (operation.write) {
+                    options.writeWeight += weight;
+                } else {
+                    options.readWeight += weight;
+                }
+            }
+
+            if (options.tableSize <= 0 || options.seconds <= 0) {
+                throw new IllegalArgumentException("Table size and seconds must be positive");
+            }
+            if ((options.readers > 0 && options.readWeight <= 0) || (options.writers > 0 && options.writeWeight <= 0)) {
+                throw new IllegalArgumentException("The mix needs reads for readers and writes for writers");
+            }
+            return options;
+        }
+
+        private static String property(String name, String defaultValue) {
+            return System.getProperty("stress." + name, defaultValue);
+        }
+
+        /**
+         * Pick a read for a reader or a write for a writer, by weight.
+         */
+        Operation nextOperation(Random random, boolean writer) {
+            int pick = random.nextInt(writer ? writeWeight : readWeight);
+            for (Operation operation : Operation.values()) {
+                if (operation.write != writer) {
+                    continue;
+                }
+                pick -= weights[operation.ordinal()];
+                if (pick < 0) {
+                    return operation;
+                }
+            }
+            throw new AssertionError();
+        }
+
+        /**
+         * Pick an id of the original table. With a hot spot, the hot ids are the lowest ones.
+         */
+        long nextId(Random random) {
+            if (hotspot && random.nextDouble() < hotOps) {
+                return random.nextInt(Math.max(1, (int) (tableSize * hotKeys))) + 1;
+            }
+            return random.nextInt(tableSize) + 1;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder mix = new StringBuilder();
+            for (Operation operation : Operation.values()) {
+                if (weights[operation.ordinal()] > 0) {
+                    mix.append(mix.length() == 0 ? "" : ",").append(operation.label()).append(':')
+                            .append(weights[operation.ordinal()]);
+                }
+            }
+            return "readers=" + readers + " writers=" + writers + " tableSize=" + tableSize
+                    + " seconds=" + seconds + " distribution=" + (hotspot ? "hotspot(" + hotKeys + "," + hotOps + ")" : "uniform")
+                    + " mix=" + mix + " sharedWriter=" + sharedWriter + " busyTimeoutMs=" + busyTimeoutMs;
+        }
+    }
+
+    /**
+     * Latencies in microseconds, in the same log-linear buckets as PetProviderMetrics: one bucket
+     * per value below 16, then 8 buckets per power of two.
+     */
+    private static final class Latencies {
+
+        // Enough buckets for about 12 days
+        private static final int BUCKETS = 16 + 36 * 8;
+
+        final long[] buckets = new long[BUCKETS];
+        long count;
+        long maxUs;
+
+        void record(long us) {
+            buckets[Math.min(bucketOf(us), BUCKETS - 1)]++;
+            count++;
+            maxUs = Math.max(maxUs, us);
+        }
+
+        void add(Latencies other) {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] += other.buckets[i];
+            }
+            count += other.count;
+            maxUs = Math.max(maxUs, other.maxUs);
+        }
+
+        /**
+         * Return the upper bound of the bucket holding the given percentile, capped by the maximum.
+         */
+        long percentile(int percent) {
+            long rank = (count * percent + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBoundOf(i), maxUs);
+                }
+            }
+            return 0;
+        }
+
+        private static int bucketOf(long value) {
+            if (value < 16) {
+                return (int) Math.max(0, value);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >> (exponent - 3)) & 7;
+            return 16 + (exponent - 4) * 8 + sub;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < 16) {
+                return bucket;
+            }
+            int exponent = (bucket - 16) / 8 + 4;
+            int sub = (bucket - 16) % 8;
+            long lower = (long) (8 + sub) << (exponent - 3);
+            return lower + (1L << (exponent - 3)) - 1;
+        }
+    }
+}